@@ -0,0 +1,73 @@
+import cn.bluemobi.dylan.util.DBConnectionPool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接池获取连接的并发压测：线程数从1增加到CPU核数的2倍，
+ * 每个线程在固定时间内循环获取并归还连接，输出每秒获取连接的次数，
+ * 吞吐量应随线程数增加，直到达到连接池的最大连接数。
+ * 修改属性文件中的jdbc.pool可以对比c3p0和native连接池的获取延迟
+ */
+public class DBPoolBenchmark {
+
+    /**
+     * 每轮压测的时间，毫秒
+     */
+    private static final long DURATION = 5000;
+
+    public static void main(String[] args) throws Exception {
+        DBConnectionPool pool = DBConnectionPool.getInstance();
+        System.out.println("连接池实现：" + pool.getProvider().getClass().getSimpleName());
+        /**预热**/
+        run(pool, 1, 1000);
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long count = run(pool, threads, DURATION);
+            System.out.println(threads + "个线程：每秒获取连接" + (count * 1000 / DURATION) + "次，"
+                    + "平均每次获取并归还耗时" + (count == 0 ? 0 : threads * DURATION * 1000 / count) + "微秒");
+        }
+    }
+
+    /**
+     * 执行一轮压测
+     *
+     * @param pool     连接池
+     * @param threads  线程数
+     * @param duration 压测时间，毫秒
+     * @return 获取连接的总次数
+     */
+    private static long run(final DBConnectionPool pool, int threads, long duration) throws InterruptedException {
+        final LongAdder count = new LongAdder();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (running.get()) {
+                            Connection connection = pool.getConnection();
+                            connection.close();
+                            count.increment();
+                        }
+                    } catch (InterruptedException | SQLException e) {
+                        e.printStackTrace();
+                    } finally {
+                        finish.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        Thread.sleep(duration);
+        running.set(false);
+        finish.await();
+        return count.sum();
+    }
+}
@@ -0,0 +1,362 @@
+import cn.bluemobi.dylan.util.BatchOptions;
+import cn.bluemobi.dylan.util.DBConnectionPool;
+import cn.bluemobi.dylan.util.DBUtil;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DBUtil和DBConnectionPool热点路径的基准测试：
+ * sql拼接(insert、update、buildQueryString)、结果集转换(getDatas)、不同批次大小的insertAll、1到N个线程获取连接。
+ * 每项先预热再测量固定的轮数，输出每秒操作数的平均值和标准差；
+ * sql拼接和结果集转换不需要数据库，其余各项需要通过-Djdbc.config指定数据库，
+ * 使用src/config/jdbc-h2.properties时不需要启动数据库服务。
+ * 运行参数：
+ * -Dbench.warmup=预热轮数(默认3) -Dbench.iterations=测量轮数(默认5) -Dbench.time=每轮毫秒数(默认1000)
+ * -Dbench.save=文件 保存本次结果，-Dbench.baseline=文件 与保存的结果比较，
+ * 任意一项下降超过-Dbench.threshold(默认0.1)时以状态码1退出，可以在持续集成中发现性能退化
+ */
+public class DBUtilBenchmark {
+
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long TIME = Long.getLong("bench.time", 1000L);
+    private static final String TABLE = "bench_emp";
+    /**
+     * 结果集转换测试的行数
+     */
+    private static final int ROWS = 1000;
+
+    /**
+     * 防止结果不被使用时JIT消除被测代码
+     */
+    private static volatile int sink;
+
+    /**
+     * 被测的操作
+     */
+    private interface Operation {
+        /**
+         * @return 本次处理的数量，结果按这个数量计算每秒操作数
+         */
+        int run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        Map<String, Double> results = new LinkedHashMap<>();
+        benchmarkSqlBuilding(results);
+        benchmarkGetDatas(results);
+        if (prepareTable()) {
+            benchmarkInsertAll(results);
+            benchmarkGetConnection(results);
+        } else {
+            System.out.println("没有可用的数据库，跳过insertAll和getConnection，使用-Djdbc.config=src/config/jdbc-h2.properties运行嵌入式数据库");
+        }
+        String save = System.getProperty("bench.save");
+        if (save != null) {
+            save(results, save);
+        }
+        String baseline = System.getProperty("bench.baseline");
+        if (baseline != null && !compare(results, baseline)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * sql拼接，通过反射调用DBUtil的私有方法，只测拼接不执行
+     */
+    private static void benchmarkSqlBuilding(Map<String, Double> results) throws Throwable {
+        final MethodHandle insertSql = privateMethod("insertSql", String.class, String[].class);
+        final MethodHandle updateSql = privateMethod("updateSql", String.class, String[].class, String[].class);
+        final MethodHandle buildQueryString = privateMethod("buildQueryString", boolean.class, String.class,
+                String[].class, String.class, String.class, String.class, String.class, String.class);
+        final String[] columns = {"emp_id", "name", "job", "salary", "hire_date"};
+        final String[] whereColumns = {"emp_id"};
+        run(results, "sql.insert", new Operation() {
+            @Override
+            public int run() throws Exception {
+                sink += invoke(insertSql, TABLE, columns).length();
+                return 1;
+            }
+        });
+        run(results, "sql.update", new Operation() {
+            @Override
+            public int run() throws Exception {
+                sink += invoke(updateSql, TABLE, columns, whereColumns).length();
+                return 1;
+            }
+        });
+        run(results, "sql.buildQueryString", new Operation() {
+            @Override
+            public int run() throws Exception {
+                sink += invoke(buildQueryString, false, TABLE, columns, "job = ?", null, null, "emp_id", "10").length();
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * 结果集转换，使用内存中的结果集，只测DBUtil逐行读取和封装的开销
+     */
+    private static void benchmarkGetDatas(Map<String, Double> results) throws Throwable {
+        final MethodHandle getDatas = privateMethod("getDatas", ResultSet.class);
+        final Object[][] rows = new Object[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new Object[]{i, "JDBCUtil测试" + i, "developer", 10000 + i, new java.sql.Date(0)};
+        }
+        final String[] columns = {"emp_id", "name", "job", "salary", "hire_date"};
+        run(results, "getDatas.rows", new Operation() {
+            @Override
+            public int run() throws Exception {
+                List<?> datas = (List<?>) invokeObject(getDatas, inMemoryResultSet(columns, rows));
+                sink += datas.size();
+                return datas.size();
+            }
+        });
+    }
+
+    /**
+     * 不同批次大小的insertAll，每次插入10000行
+     */
+    private static void benchmarkInsertAll(Map<String, Double> results) throws Exception {
+        final List<Map<String, Object>> datas = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("emp_id", i);
+            map.put("name", "JDBCUtil测试");
+            map.put("job", "developer");
+            map.put("salary", 10000);
+            map.put("hire_date", new java.sql.Date(0));
+            datas.add(map);
+        }
+        for (final int batchSize : new int[]{100, 1000, 10000}) {
+            run(results, "insertAll.batch" + batchSize, new Operation() {
+                @Override
+                public int run() throws Exception {
+                    long count = DBUtil.insertAll(TABLE, datas.iterator(), new BatchOptions().batchSize(batchSize));
+                    DBUtil.executeUpdate("DELETE FROM " + TABLE, null);
+                    return (int) count;
+                }
+            });
+        }
+    }
+
+    /**
+     * 1到N个线程同时获取并归还连接
+     */
+    private static void benchmarkGetConnection(Map<String, Double> results) throws Exception {
+        final DBConnectionPool pool = DBConnectionPool.getInstance();
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final int threadCount = threads;
+            run(results, "getConnection.threads" + threads, new Operation() {
+                @Override
+                public int run() throws Exception {
+                    return (int) contend(pool, threadCount);
+                }
+            }, true);
+        }
+    }
+
+    /**
+     * 多个线程在一轮时间内循环获取并归还连接
+     *
+     * @return 获取连接的总次数
+     */
+    private static long contend(final DBConnectionPool pool, int threads) throws InterruptedException {
+        final LongAdder count = new LongAdder();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch finish = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            Connection connection = pool.getConnection();
+                            connection.close();
+                            count.increment();
+                        }
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    } finally {
+                        finish.countDown();
+                    }
+                }
+            }).start();
+        }
+        Thread.sleep(TIME);
+        running.set(false);
+        finish.await();
+        return count.sum();
+    }
+
+    private static void run(Map<String, Double> results, String name, Operation operation) throws Exception {
+        run(results, name, operation, false);
+    }
+
+    /**
+     * 预热后测量固定的轮数，输出每秒操作数的平均值和标准差
+     *
+     * @param timed 操作本身是否已经持续了一轮时间
+     */
+    private static void run(Map<String, Double> results, String name, Operation operation, boolean timed) throws Exception {
+        double[] scores = new double[ITERATIONS];
+        for (int i = -WARMUP; i < ITERATIONS; i++) {
+            System.gc();
+            long operations = 0;
+            long start = System.nanoTime();
+            if (timed) {
+                operations = operation.run();
+            } else {
+                long deadline = start + TIME * 1000000L;
+                do {
+                    operations += operation.run();
+                } while (System.nanoTime() < deadline);
+            }
+            double score = operations * 1e9 / (System.nanoTime() - start);
+            if (i >= 0) {
+                scores[i] = score;
+            }
+        }
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double stddev = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+        System.out.println(String.format("%-28s %15.1f ops/s ± %.1f%%", name, mean, mean == 0 ? 0 : stddev * 100 / mean));
+        results.put(name, mean);
+    }
+
+    /**
+     * 创建测试表，没有可用的数据库时返回false
+     */
+    private static boolean prepareTable() {
+        try (Connection connection = DBConnectionPool.getInstance().getConnection();
+             Statement statement = connection.createStatement()) {
+            try {
+                statement.execute("DROP TABLE " + TABLE);
+            } catch (SQLException e) {
+                /**表不存在**/
+            }
+            statement.execute("CREATE TABLE " + TABLE + " (emp_id INT, name VARCHAR(64), job VARCHAR(32), salary INT, hire_date DATE)");
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static MethodHandle privateMethod(String name, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        Method method = DBUtil.class.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+    }
+
+    private static String invoke(MethodHandle handle, Object... args) throws Exception {
+        return (String) invokeObject(handle, args);
+    }
+
+    private static Object invokeObject(MethodHandle handle, Object... args) throws Exception {
+        try {
+            return handle.invokeWithArguments(args);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 内存中的只进结果集
+     */
+    private static ResultSet inMemoryResultSet(final String[] columns, final Object[][] rows) {
+        final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+                DBUtilBenchmark.class.getClassLoader(), new Class<?>[]{ResultSetMetaData.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getColumnCount".equals(method.getName())) {
+                            return columns.length;
+                        }
+                        return columns[(Integer) args[0] - 1];
+                    }
+                });
+        return (ResultSet) Proxy.newProxyInstance(DBUtilBenchmark.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                new InvocationHandler() {
+                    private int row = -1;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "next":
+                                return ++row < rows.length;
+                            case "getObject":
+                                return rows[row][(Integer) args[0] - 1];
+                            case "getMetaData":
+                                return metaData;
+                            default:
+                                return null;
+                        }
+                    }
+                });
+    }
+
+    private static void save(Map<String, Double> results, String file) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Double> entry : results.entrySet()) {
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "DBUtilBenchmark ops/s");
+        }
+    }
+
+    /**
+     * 与保存的结果比较
+     *
+     * @return 没有超过阈值的退化时返回true
+     */
+    private static boolean compare(Map<String, Double> results, String file) throws IOException {
+        double threshold = Double.parseDouble(System.getProperty("bench.threshold", "0.1"));
+        Properties baseline = new Properties();
+        try (FileInputStream in = new FileInputStream(file)) {
+            baseline.load(in);
+        }
+        boolean passed = true;
+        for (Map.Entry<String, Double> entry : results.entrySet()) {
+            String value = baseline.getProperty(entry.getKey());
+            if (value == null) {
+                continue;
+            }
+            double before = Double.parseDouble(value);
+            double change = before == 0 ? 0 : (entry.getValue() - before) / before;
+            boolean regressed = change < -threshold;
+            passed &= !regressed;
+            System.out.println(String.format("%-28s %+.1f%%%s", entry.getKey(), change * 100, regressed ? " 退化" : ""));
+        }
+        return passed;
+    }
+}
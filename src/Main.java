@@ -42,9 +42,10 @@ public class Main {
             cpds.setMaxPoolSize(20);
             // JDBC的标准参数,用以控制数据源内加载的PreparedStatement数据.但由于预缓存的Statement属于单个Connection而不是整个连接池.所以设置这个参数需要考滤到多方面的因素,如果maxStatements
             // 与maxStatementsPerConnection均为0,则缓存被关闭.默认为0;
+            // 这里只按连接限制缓存数量,同样的sql在同一个连接上重复预编译时直接复用,避免数据库硬解析
             cpds.setMaxStatements(0);
-            // 连接池内单个连接所拥有的最大缓存被关闭.默认为0;
-            cpds.setMaxStatementsPerConnection(0);
+            // 连接池内单个连接所拥有的最大缓存statements数.默认为0;
+            cpds.setMaxStatementsPerConnection(50);
             // C3P0是异步操作的,缓慢的JDBC操作通过帮助进程完成.扩展这些操作可以有效的提升性能,通过多数程实现多个操作同时被执行.默为为3
             cpds.setNumHelperThreads(3);
             // 用户修改系统配置参数执行前最多等待的秒数.默认为300;
@@ -0,0 +1,360 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DBUtil的异步版本，返回CompletableFuture。
+ * 运行在JDK21以上时每个调用使用一个虚拟线程，否则每个数据源使用一个固定大小的守护线程池；
+ * 每个数据源同时执行的调用数不超过该数据源连接池的最大连接数，分片表的调用计入分片键路由到的分片，
+ * 条件中没有分片键、需要在所有分片上执行的调用计入调用线程指定的数据源；
+ * 所有数据源等待执行的调用超过maxPending时直接以SQLTransientConnectionException失败，
+ * 由调用方降级或重试，而不是无限排队；{@link QueryPublisher}的每个订阅在持有游标期间同样占用一个名额。
+ * 异步调用在其他线程执行，使用调用线程指定的数据源，但不参与当前线程的事务
+ */
+public final class AsyncDBUtil {
+
+    /**
+     * 默认最多等待执行的调用数
+     */
+    public static final int DEFAULT_MAX_PENDING = 10000;
+
+    /**
+     * 虚拟线程执行器，JDK21以下为null
+     */
+    private static final ExecutorService VIRTUAL_EXECUTOR = createVirtualExecutor();
+    /**
+     * 每个数据源的执行器和并发限制，按数据源的名称第一次使用时创建
+     */
+    private static final ConcurrentHashMap<String, Lane> LANES = new ConcurrentHashMap<>();
+    private static final AtomicInteger PENDING = new AtomicInteger();
+    private static volatile int maxPending = DEFAULT_MAX_PENDING;
+
+    /**
+     * 一个数据源的执行器和名额，名额数等于连接池的最大连接数，取得名额后才在执行器上执行；
+     * 没有名额时按顺序排队，排队不占用线程，守护线程池的线程数等于名额数，不会因为等待名额而耗尽线程
+     */
+    private static final class Lane {
+        final Executor executor;
+        private final int permits;
+        /**
+         * 已经占用的名额和排队等待名额的任务
+         */
+        private int running;
+        private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+
+        Lane(final DBConnectionPool pool) {
+            permits = Math.max(pool.getMaxPoolSize(), 1);
+            if (VIRTUAL_EXECUTOR != null) {
+                executor = VIRTUAL_EXECUTOR;
+            } else {
+                final AtomicInteger threadNumber = new AtomicInteger();
+                executor = Executors.newFixedThreadPool(permits, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "DBUtil-async-" + pool.getName() + "-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+
+        /**
+         * 取得一个名额后在执行器上执行任务，任务结束时必须调用{@link #release()}
+         */
+        void acquire(Runnable task) {
+            synchronized (this) {
+                if (running >= permits) {
+                    waiting.add(task);
+                    return;
+                }
+                running++;
+            }
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                release();
+                throw e;
+            }
+        }
+
+        /**
+         * 取消排队中的任务
+         *
+         * @return 是否还在排队，返回false时任务已经取得名额
+         */
+        synchronized boolean cancel(Runnable task) {
+            return waiting.remove(task);
+        }
+
+        /**
+         * 归还名额，有排队的任务时直接交给下一个任务
+         */
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            executor.execute(next);
+        }
+    }
+
+    private AsyncDBUtil() {
+    }
+
+    /**
+     * JDK21以上通过反射创建虚拟线程执行器
+     *
+     * @return 执行器，不支持虚拟线程时返回null
+     */
+    private static ExecutorService createVirtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 获取数据源的执行器，线程池的线程在使用时才创建，并发创建时多余的Lane直接丢弃
+     *
+     * @param dataSource 数据源的名称，为null时使用默认数据源
+     */
+    private static Lane lane(String dataSource) {
+        DBConnectionPool pool = DBConnectionPool.getInstance(dataSource);
+        Lane lane = LANES.get(pool.getName());
+        if (lane == null) {
+            Lane created = new Lane(pool);
+            lane = LANES.putIfAbsent(pool.getName(), created);
+            if (lane == null) {
+                lane = created;
+            }
+        }
+        return lane;
+    }
+
+    /**
+     * @return 当前线程指定的数据源的异步调用使用的执行器
+     */
+    static Executor executor() {
+        return lane(DataSourceContext.current()).executor;
+    }
+
+    /**
+     * 在数据源上占用一个名额并计入等待执行的调用数，取得名额后在执行器上执行onAcquired，
+     * 名额一直占用到调用返回的操作为止，供长时间持有连接的{@link QueryPublisher}使用
+     *
+     * @param dataSource 数据源的名称，为null时使用默认数据源
+     * @param onAcquired 取得名额后执行
+     * @return 归还名额的操作，还在排队时取消排队，多次调用只有第一次有效
+     * @throws SQLException 等待执行的调用超过maxPending时抛出SQLTransientConnectionException
+     */
+    static Runnable acquire(String dataSource, final Runnable onAcquired) throws SQLException {
+        if (PENDING.incrementAndGet() > maxPending) {
+            PENDING.decrementAndGet();
+            throw new SQLTransientConnectionException("等待执行的数据库调用超过" + maxPending);
+        }
+        final Lane lane;
+        try {
+            lane = lane(dataSource);
+            lane.acquire(onAcquired);
+        } catch (RuntimeException e) {
+            PENDING.decrementAndGet();
+            throw e;
+        }
+        final AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                if (!lane.cancel(onAcquired)) {
+                    lane.release();
+                }
+                PENDING.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * 设置最多等待执行的调用数
+     *
+     * @param maxPending 调用数，必须大于0
+     */
+    public static void setMaxPending(int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+        }
+        AsyncDBUtil.maxPending = maxPending;
+    }
+
+    public static int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * @return 已提交还没有完成的调用数
+     */
+    public static int getPendingCount() {
+        return PENDING.get();
+    }
+
+    /**
+     * @return 是否使用虚拟线程
+     */
+    public static boolean isVirtualThreads() {
+        return VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * 异步插入
+     *
+     * @see DBUtil#insert(String, Map)
+     */
+    public static CompletableFuture<Integer> insert(final String tableName, final Map<String, Object> valueMap) {
+        return submit(tableName, valueMap, () -> DBUtil.insert(tableName, valueMap));
+    }
+
+    /**
+     * 异步更新
+     *
+     * @see DBUtil#update(String, Map, Map)
+     */
+    public static CompletableFuture<Integer> update(final String tableName, final Map<String, Object> valueMap,
+                                                    final Map<String, Object> whereMap) {
+        return submit(tableName, whereMap, () -> DBUtil.update(tableName, valueMap, whereMap));
+    }
+
+    /**
+     * 异步删除
+     *
+     * @see DBUtil#delete(String, Map)
+     */
+    public static CompletableFuture<Integer> delete(final String tableName, final Map<String, Object> whereMap) {
+        return submit(tableName, whereMap, () -> DBUtil.delete(tableName, whereMap));
+    }
+
+    /**
+     * 异步执行增删改的sql
+     *
+     * @see DBUtil#executeUpdate(String, Object[])
+     */
+    public static CompletableFuture<Integer> executeUpdate(final String sql, final Object[] bindArgs) {
+        return submit(null, null, () -> DBUtil.executeUpdate(sql, bindArgs));
+    }
+
+    /**
+     * 异步按Map条件查询
+     *
+     * @see DBUtil#query(String, Map)
+     */
+    public static CompletableFuture<List<Map<String, Object>>> query(final String tableName,
+                                                                     final Map<String, Object> whereMap) {
+        return submit(tableName, whereMap, () -> DBUtil.query(tableName, whereMap, 0L));
+    }
+
+    /**
+     * 异步按Map条件查询，结果映射成指定类型的对象
+     *
+     * @see DBUtil#query(Class, String, Map)
+     */
+    public static <T> CompletableFuture<List<T>> query(final Class<T> type, final String tableName,
+                                                       final Map<String, Object> whereMap) {
+        return submit(tableName, whereMap, () -> DBUtil.query(type, tableName, whereMap));
+    }
+
+    /**
+     * 异步执行查询
+     *
+     * @see DBUtil#executeQuery(String, Object[])
+     */
+    public static CompletableFuture<List<Map<String, Object>>> executeQuery(final String sql, final Object[] bindArgs) {
+        return submit(null, null, () -> DBUtil.executeQuery(sql, bindArgs));
+    }
+
+    /**
+     * 异步执行查询，结果映射成指定类型的对象
+     *
+     * @see DBUtil#executeQuery(Class, String, Object[])
+     */
+    public static <T> CompletableFuture<List<T>> executeQuery(final Class<T> type, final String sql,
+                                                              final Object[] bindArgs) {
+        return submit(null, null, () -> DBUtil.executeQuery(type, sql, bindArgs));
+    }
+
+    /**
+     * 选择调用实际使用的数据源：分片表按数据或条件中的分片键路由到分片，
+     * 没有分片键的条件在所有分片上依次执行，与其他调用一样使用调用线程指定的数据源的名额
+     *
+     * @param tableName 表名，直接执行sql时为null
+     * @param map       数据或条件
+     * @return 数据源的名称，为null时使用默认数据源
+     */
+    private static String dataSourceOf(String tableName, Map<String, Object> map) {
+        ShardRouter.Shard shard = tableName == null ? null : ShardRouter.shardOf(tableName);
+        String routed = shard == null ? null : shard.route(map);
+        return routed != null ? routed : DataSourceContext.current();
+    }
+
+    /**
+     * 提交调用，占用实际使用的数据源的名额，等待执行的调用过多时返回失败的future
+     *
+     * @param tableName 分片路由的表名，直接执行sql时为null
+     * @param routeMap  分片路由的数据或条件
+     * @param task      调用
+     * @return 调用的结果
+     */
+    private static <T> CompletableFuture<T> submit(String tableName, Map<String, Object> routeMap,
+                                                   final DataSourceCallback<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        if (PENDING.incrementAndGet() > maxPending) {
+            PENDING.decrementAndGet();
+            future.completeExceptionally(new SQLTransientConnectionException("等待执行的数据库调用超过" + maxPending));
+            return future;
+        }
+        try {
+            /**在路由到的分片或调用线程指定的数据源上执行，显式指定分片后DBUtil内部不再重复路由**/
+            final String dataSource = dataSourceOf(tableName, routeMap);
+            final Lane lane = lane(dataSource);
+            /**连接池用完时在Lane中排队，不占用线程**/
+            lane.acquire(new Runnable() {
+                @Override
+                public void run() {
+                    T result = null;
+                    Throwable error = null;
+                    try {
+                        result = DataSourceContext.execute(dataSource, task);
+                    } catch (Throwable e) {
+                        error = e;
+                    } finally {
+                        lane.release();
+                        PENDING.decrementAndGet();
+                    }
+                    if (error != null) {
+                        future.completeExceptionally(error);
+                    } else {
+                        future.complete(result);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            /**分片策略或创建数据源失败，或执行器拒绝执行**/
+            PENDING.decrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
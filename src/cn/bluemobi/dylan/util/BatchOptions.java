@@ -0,0 +1,182 @@
+package cn.bluemobi.dylan.util;
+
+/**
+ * 批量插入的参数：每批最多的行数和字节数，以及每插入多少行提交一次
+ */
+public class BatchOptions {
+
+    /**
+     * 默认每批的行数
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    /**
+     * 默认每批估算的最大字节数
+     */
+    public static final long DEFAULT_MAX_BATCH_BYTES = 4 * 1024 * 1024;
+    /**
+     * 并行插入时默认每个分区的行数
+     */
+    public static final int DEFAULT_PARTITION_SIZE = 10000;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private long commitInterval;
+    private BatchProgressListener progressListener;
+    private boolean multiRowValues;
+    private boolean bulkLoad;
+    private int parallelism;
+    private int partitionSize = DEFAULT_PARTITION_SIZE;
+
+    /**
+     * 每批的行数，达到后执行一次executeBatch
+     *
+     * @param batchSize 行数，必须大于0
+     * @return this
+     */
+    public BatchOptions batchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * 每批估算的最大字节数，达到后即使行数不够也执行一次executeBatch
+     *
+     * @param maxBatchBytes 字节数，为0时不限制
+     * @return this
+     */
+    public BatchOptions maxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    /**
+     * 每插入多少行提交一次，为0时全部插入后只提交一次，出错时全部回滚；
+     * 在事务中执行时由事务统一提交，并行插入时每个分区只提交一次，该设置都不生效
+     *
+     * @param commitInterval 行数
+     * @return this
+     */
+    public BatchOptions commitInterval(long commitInterval) {
+        this.commitInterval = commitInterval;
+        return this;
+    }
+
+    /**
+     * 进度回调
+     *
+     * @param progressListener 每执行完一批回调一次
+     * @return this
+     */
+    public BatchOptions progressListener(BatchProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * 是否把多行合并成一条sql插入，MySQL使用INSERT ... VALUES (...),(...)，Oracle使用INSERT ALL，
+     * 每条sql的行数不超过batchSize，并根据绑定参数个数和max_allowed_packet自动减少；
+     * 其他数据库仍然使用executeBatch
+     *
+     * @param multiRowValues 是否使用多行VALUES
+     * @return this
+     */
+    public BatchOptions multiRowValues(boolean multiRowValues) {
+        this.multiRowValues = multiRowValues;
+        return this;
+    }
+
+    /**
+     * 是否使用数据库原生的批量导入，MySQL使用LOAD DATA LOCAL INFILE，数据在内存中边读取边编码成\t分隔的文本发送，
+     * 不经过绑定参数；每段导入commitInterval行，为0时整个输入一次导入。
+     * 方言或驱动不支持、服务端禁用了LOCAL INFILE或不支持utf8mb4（5.5.3之前）时自动改用executeBatch。
+     * 注意LOAD DATA LOCAL遇到主键冲突等错误时只产生警告并跳过该行，返回的行数可能少于输入的行数
+     *
+     * @param bulkLoad 是否使用原生批量导入
+     * @return this
+     */
+    public BatchOptions bulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+        return this;
+    }
+
+    /**
+     * 并行插入时同时使用的连接数，不超过连接池的最大连接数
+     *
+     * @param parallelism 连接数，为0时使用连接池的最大连接数
+     * @return this
+     */
+    public BatchOptions parallelism(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("parallelism must not be negative: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * 并行插入时每个分区的行数，每个分区在一个连接上插入并单独提交，失败时只回滚该分区
+     *
+     * @param partitionSize 行数，必须大于0
+     * @return this
+     */
+    public BatchOptions partitionSize(int partitionSize) {
+        if (partitionSize <= 0) {
+            throw new IllegalArgumentException("partitionSize must be positive: " + partitionSize);
+        }
+        this.partitionSize = partitionSize;
+        return this;
+    }
+
+    /**
+     * 复制一份参数
+     *
+     * @return 新的参数对象
+     */
+    BatchOptions copy() {
+        BatchOptions copy = new BatchOptions();
+        copy.batchSize = batchSize;
+        copy.maxBatchBytes = maxBatchBytes;
+        copy.commitInterval = commitInterval;
+        copy.progressListener = progressListener;
+        copy.multiRowValues = multiRowValues;
+        copy.bulkLoad = bulkLoad;
+        copy.parallelism = parallelism;
+        copy.partitionSize = partitionSize;
+        return copy;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public long getCommitInterval() {
+        return commitInterval;
+    }
+
+    public BatchProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public boolean isMultiRowValues() {
+        return multiRowValues;
+    }
+
+    public boolean isBulkLoad() {
+        return bulkLoad;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getPartitionSize() {
+        return partitionSize;
+    }
+}
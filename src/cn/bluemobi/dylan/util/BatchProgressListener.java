@@ -0,0 +1,16 @@
+package cn.bluemobi.dylan.util;
+
+/**
+ * 批量插入的进度回调，每执行完一批回调一次
+ */
+public interface BatchProgressListener {
+
+    /**
+     * 进度回调
+     *
+     * @param rowCount      已经插入的行数
+     * @param elapsedMillis 已经耗费的时间，毫秒
+     * @param rowsPerSecond 平均每秒插入的行数
+     */
+    void onProgress(long rowCount, long elapsedMillis, double rowsPerSecond);
+}
@@ -0,0 +1,569 @@
+package cn.bluemobi.dylan.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 把结果集映射成JavaBean的行转换器。
+ * 列与属性(或构造函数参数)的对应关系对每个(SQL, 类型)只计算一次并缓存，结果集的列名变化时重新计算，
+ * 每行只通过预先生成的MethodHandle赋值，不再使用反射；
+ * 基本类型的属性直接用getInt/getLong/getDouble/getBoolean读取，不会装箱。
+ * 列名与属性名忽略大小写和下划线进行匹配，例如emp_id对应empId
+ *
+ * @param <T> 目标类型
+ */
+public final class BeanRowMapper<T> implements RowMapper<T> {
+
+    /**
+     * 最多缓存的转换器数量，超过后淘汰任意一个，防止拼接了字面量的SQL撑爆缓存
+     */
+    private static final int MAX_CACHED_MAPPERS = 1024;
+    private static final ConcurrentHashMap<MapperKey, BeanRowMapper<?>> CACHE = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final Class<T> type;
+    /**
+     * 生成转换器时结果集的列名，同一个SQL的结果集结构变化时(例如select *查询的表增减了列)需要重新生成
+     */
+    private final String[] columnNames;
+    /**
+     * 单列的简单类型(String、数字、日期等)直接读取第一列
+     */
+    private final ValueReader simpleReader;
+    /**
+     * 无参构造函数，类型为()Object；构造函数注入时类型为(Object[])Object
+     */
+    private final MethodHandle constructor;
+    /**
+     * 通过setter或字段赋值的列
+     */
+    private final Column[] columns;
+    /**
+     * 构造函数注入时每个参数对应的列，没有对应列的参数为null
+     */
+    private final Column[] constructorColumns;
+    /**
+     * 构造函数注入时没有对应列或列值为null时参数的默认值
+     */
+    private final Object[] constructorDefaults;
+
+    private BeanRowMapper(Class<T> type, String[] columnNames, ValueReader simpleReader, MethodHandle constructor,
+                          Column[] columns, Column[] constructorColumns, Object[] constructorDefaults) {
+        this.type = type;
+        this.columnNames = columnNames;
+        this.simpleReader = simpleReader;
+        this.constructor = constructor;
+        this.columns = columns;
+        this.constructorColumns = constructorColumns;
+        this.constructorDefaults = constructorDefaults;
+    }
+
+    /**
+     * 获取SQL对应的转换器，没有缓存或缓存的转换器与结果集的列名不一致时根据结果集的数据结构生成
+     *
+     * @param sql      查询的sql语句
+     * @param type     目标类型
+     * @param metaData 结果集的数据结构对象
+     * @return 转换器
+     * @throws SQLException 无法为目标类型生成转换器
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BeanRowMapper<T> forQuery(String sql, Class<T> type, ResultSetMetaData metaData) throws SQLException {
+        MapperKey key = new MapperKey(sql, type);
+        BeanRowMapper<T> mapper = (BeanRowMapper<T>) CACHE.get(key);
+        if (mapper != null && mapper.matches(metaData)) {
+            return mapper;
+        }
+        mapper = create(type, metaData);
+        while (CACHE.size() >= MAX_CACHED_MAPPERS) {
+            Iterator<MapperKey> iterator = CACHE.keySet().iterator();
+            if (!iterator.hasNext()) {
+                break;
+            }
+            iterator.next();
+            iterator.remove();
+        }
+        CACHE.put(key, mapper);
+        return mapper;
+    }
+
+    /**
+     * 结果集的列名与生成转换器时是否一致
+     */
+    private boolean matches(ResultSetMetaData metaData) throws SQLException {
+        if (metaData.getColumnCount() != columnNames.length) {
+            return false;
+        }
+        for (int i = 0; i < columnNames.length; i++) {
+            if (!columnNames[i].equals(metaData.getColumnName(i + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 根据结果集的数据结构生成转换器，不缓存
+     *
+     * @param type     目标类型
+     * @param metaData 结果集的数据结构对象
+     * @return 转换器
+     * @throws SQLException 无法为目标类型生成转换器
+     */
+    public static <T> BeanRowMapper<T> create(Class<T> type, ResultSetMetaData metaData) throws SQLException {
+        String[] columnNames = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = metaData.getColumnName(i + 1);
+        }
+        ValueReader simpleReader = simpleReader(type);
+        if (simpleReader != null) {
+            return new BeanRowMapper<>(type, columnNames, simpleReader, null, null, null, null);
+        }
+        try {
+            Constructor<?> noArgConstructor = findNoArgConstructor(type);
+            if (noArgConstructor != null) {
+                return createWithProperties(type, noArgConstructor, columnNames);
+            }
+            return createWithConstructor(type, columnNames);
+        } catch (IllegalAccessException e) {
+            throw new SQLException("无法为" + type.getName() + "生成行转换器", e);
+        }
+    }
+
+    /**
+     * 无参构造函数创建对象，再通过setter或字段赋值
+     */
+    private static <T> BeanRowMapper<T> createWithProperties(Class<T> type, Constructor<?> noArgConstructor,
+                                                             String[] columnNames)
+            throws SQLException, IllegalAccessException {
+        noArgConstructor.setAccessible(true);
+        MethodHandle constructor = LOOKUP.unreflectConstructor(noArgConstructor)
+                .asType(MethodType.methodType(Object.class));
+        Map<String, Field> fields = fieldsByName(type);
+        Column[] matched = new Column[columnNames.length];
+        int count = 0;
+        for (int i = 1; i <= columnNames.length; i++) {
+            Field field = fields.get(normalize(columnNames[i - 1]));
+            if (field == null) {
+                continue;
+            }
+            matched[count++] = column(i, field.getType(), setter(type, field));
+        }
+        Column[] columns = new Column[count];
+        System.arraycopy(matched, 0, columns, 0, count);
+        return new BeanRowMapper<>(type, columnNames, null, constructor, columns, null, null);
+    }
+
+    /**
+     * 没有无参构造函数时，使用参数最多的构造函数，按参数名匹配列，需要以-parameters编译
+     */
+    private static <T> BeanRowMapper<T> createWithConstructor(Class<T> type, String[] columnNames)
+            throws SQLException, IllegalAccessException {
+        Constructor<?> best = null;
+        for (Constructor<?> candidate : type.getDeclaredConstructors()) {
+            if (best == null || candidate.getParameterCount() > best.getParameterCount()) {
+                best = candidate;
+            }
+        }
+        if (best == null) {
+            throw new SQLException(type.getName() + "没有可用的构造函数");
+        }
+        Map<String, Integer> columnPositions = new HashMap<>();
+        for (int i = 1; i <= columnNames.length; i++) {
+            columnPositions.put(normalize(columnNames[i - 1]), i);
+        }
+        Parameter[] parameters = best.getParameters();
+        Column[] constructorColumns = new Column[parameters.length];
+        Object[] constructorDefaults = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+            if (!parameter.isNamePresent()) {
+                throw new SQLException(type.getName() + "的构造函数缺少参数名，请使用-parameters编译或提供无参构造函数");
+            }
+            Integer position = columnPositions.get(normalize(parameter.getName()));
+            if (position != null) {
+                constructorColumns[i] = column(position, parameter.getType(), null);
+            }
+            constructorDefaults[i] = defaultValue(parameter.getType());
+        }
+        best.setAccessible(true);
+        MethodHandle constructor = LOOKUP.unreflectConstructor(best)
+                .asType(MethodType.genericMethodType(parameters.length))
+                .asSpreader(Object[].class, parameters.length);
+        return new BeanRowMapper<>(type, columnNames, null, constructor, null, constructorColumns, constructorDefaults);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T mapRow(ResultSet resultSet, int rowNumber) throws SQLException {
+        try {
+            if (simpleReader != null) {
+                return (T) simpleReader.read(resultSet, 1);
+            }
+            Object target;
+            if (constructorColumns != null) {
+                Object[] args = new Object[constructorColumns.length];
+                for (int i = 0; i < args.length; i++) {
+                    Column column = constructorColumns[i];
+                    Object value = column == null ? null : column.read(resultSet);
+                    args[i] = value == null ? constructorDefaults[i] : value;
+                }
+                target = constructor.invokeExact(args);
+            } else {
+                target = constructor.invokeExact();
+                for (Column column : columns) {
+                    column.bind(target, resultSet);
+                }
+            }
+            return (T) target;
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new SQLException("第" + rowNumber + "行转换成" + type.getName() + "失败", t);
+        }
+    }
+
+    /**
+     * 查找无参构造函数
+     */
+    private static Constructor<?> findNoArgConstructor(Class<?> type) {
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            if (constructor.getParameterCount() == 0) {
+                return constructor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取类及其父类中所有可赋值的字段，key为规范化后的字段名
+     */
+    private static Map<String, Field> fieldsByName(Class<?> type) {
+        Map<String, Field> fields = new HashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) {
+                    continue;
+                }
+                String name = normalize(field.getName());
+                /**子类的字段优先**/
+                if (!fields.containsKey(name)) {
+                    fields.put(name, field);
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * 优先使用public的setXxx方法，没有时直接给字段赋值
+     */
+    private static MethodHandle setter(Class<?> type, Field field) throws IllegalAccessException {
+        String name = field.getName();
+        String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        try {
+            Method method = type.getMethod(setterName, field.getType());
+            return LOOKUP.unreflect(method);
+        } catch (NoSuchMethodException e) {
+            field.setAccessible(true);
+            return LOOKUP.unreflectSetter(field);
+        }
+    }
+
+    /**
+     * 列名和属性名规范化：忽略大小写和下划线
+     */
+    private static String normalize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c != '_') {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0D;
+        } else if (type == float.class) {
+            return 0F;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else {
+            return (byte) 0;
+        }
+    }
+
+    /**
+     * 根据属性类型创建对应的列，基本类型使用不装箱的专用实现
+     *
+     * @param index  列的位置，从1开始
+     * @param type   属性类型
+     * @param setter setter或字段的MethodHandle，构造函数注入时为null
+     */
+    private static Column column(int index, Class<?> type, MethodHandle setter) throws SQLException {
+        if (type == int.class) {
+            return new IntColumn(index, setter);
+        } else if (type == long.class) {
+            return new LongColumn(index, setter);
+        } else if (type == double.class) {
+            return new DoubleColumn(index, setter);
+        } else if (type == boolean.class) {
+            return new BooleanColumn(index, setter);
+        }
+        ValueReader reader = simpleReader(type);
+        if (reader == null) {
+            reader = (resultSet, position) -> resultSet.getObject(position);
+        }
+        return new ObjectColumn(index, setter, reader);
+    }
+
+    /**
+     * 简单类型的读取方式，不是简单类型时返回null
+     */
+    private static ValueReader simpleReader(Class<?> type) {
+        if (type == String.class) {
+            return (resultSet, index) -> resultSet.getString(index);
+        } else if (type == BigDecimal.class) {
+            return (resultSet, index) -> resultSet.getBigDecimal(index);
+        } else if (type == Integer.class || type == int.class) {
+            return (resultSet, index) -> {
+                int value = resultSet.getInt(index);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (type == Long.class || type == long.class) {
+            return (resultSet, index) -> {
+                long value = resultSet.getLong(index);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (type == Double.class || type == double.class) {
+            return (resultSet, index) -> {
+                double value = resultSet.getDouble(index);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (type == Float.class || type == float.class) {
+            return (resultSet, index) -> {
+                float value = resultSet.getFloat(index);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (type == Short.class || type == short.class) {
+            return (resultSet, index) -> {
+                short value = resultSet.getShort(index);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (type == Byte.class || type == byte.class) {
+            return (resultSet, index) -> {
+                byte value = resultSet.getByte(index);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (type == Boolean.class || type == boolean.class) {
+            return (resultSet, index) -> {
+                boolean value = resultSet.getBoolean(index);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (type == Timestamp.class || type == java.util.Date.class) {
+            return (resultSet, index) -> resultSet.getTimestamp(index);
+        } else if (type == Date.class) {
+            return (resultSet, index) -> resultSet.getDate(index);
+        } else if (type == Time.class) {
+            return (resultSet, index) -> resultSet.getTime(index);
+        } else if (type == byte[].class) {
+            return (resultSet, index) -> resultSet.getBytes(index);
+        }
+        return null;
+    }
+
+    /**
+     * 按类型读取列值
+     */
+    private interface ValueReader {
+        Object read(ResultSet resultSet, int index) throws SQLException;
+    }
+
+    /**
+     * 结果集中的一列与目标属性的绑定
+     */
+    private static abstract class Column {
+        final int index;
+
+        Column(int index) {
+            this.index = index;
+        }
+
+        /**
+         * 读取列值并赋值给目标对象
+         */
+        abstract void bind(Object target, ResultSet resultSet) throws Throwable;
+
+        /**
+         * 读取列值，用于构造函数注入
+         */
+        abstract Object read(ResultSet resultSet) throws SQLException;
+    }
+
+    private static final class IntColumn extends Column {
+        private final MethodHandle setter;
+
+        IntColumn(int index, MethodHandle setter) {
+            super(index);
+            this.setter = setter == null ? null : setter.asType(MethodType.methodType(void.class, Object.class, int.class));
+        }
+
+        @Override
+        void bind(Object target, ResultSet resultSet) throws Throwable {
+            setter.invokeExact(target, resultSet.getInt(index));
+        }
+
+        @Override
+        Object read(ResultSet resultSet) throws SQLException {
+            return resultSet.getInt(index);
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private final MethodHandle setter;
+
+        LongColumn(int index, MethodHandle setter) {
+            super(index);
+            this.setter = setter == null ? null : setter.asType(MethodType.methodType(void.class, Object.class, long.class));
+        }
+
+        @Override
+        void bind(Object target, ResultSet resultSet) throws Throwable {
+            setter.invokeExact(target, resultSet.getLong(index));
+        }
+
+        @Override
+        Object read(ResultSet resultSet) throws SQLException {
+            return resultSet.getLong(index);
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+        private final MethodHandle setter;
+
+        DoubleColumn(int index, MethodHandle setter) {
+            super(index);
+            this.setter = setter == null ? null : setter.asType(MethodType.methodType(void.class, Object.class, double.class));
+        }
+
+        @Override
+        void bind(Object target, ResultSet resultSet) throws Throwable {
+            setter.invokeExact(target, resultSet.getDouble(index));
+        }
+
+        @Override
+        Object read(ResultSet resultSet) throws SQLException {
+            return resultSet.getDouble(index);
+        }
+    }
+
+    private static final class BooleanColumn extends Column {
+        private final MethodHandle setter;
+
+        BooleanColumn(int index, MethodHandle setter) {
+            super(index);
+            this.setter = setter == null ? null : setter.asType(MethodType.methodType(void.class, Object.class, boolean.class));
+        }
+
+        @Override
+        void bind(Object target, ResultSet resultSet) throws Throwable {
+            setter.invokeExact(target, resultSet.getBoolean(index));
+        }
+
+        @Override
+        Object read(ResultSet resultSet) throws SQLException {
+            return resultSet.getBoolean(index);
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+        private final MethodHandle setter;
+        private final ValueReader reader;
+        /**
+         * 基本类型的属性遇到null时跳过赋值，保留默认值
+         */
+        private final boolean primitive;
+
+        ObjectColumn(int index, MethodHandle setter, ValueReader reader) {
+            super(index);
+            this.setter = setter == null ? null : setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            this.reader = reader;
+            this.primitive = setter != null && setter.type().parameterType(setter.type().parameterCount() - 1).isPrimitive();
+        }
+
+        @Override
+        void bind(Object target, ResultSet resultSet) throws Throwable {
+            Object value = reader.read(resultSet, index);
+            if (value == null && primitive) {
+                return;
+            }
+            setter.invokeExact(target, value);
+        }
+
+        @Override
+        Object read(ResultSet resultSet) throws SQLException {
+            return reader.read(resultSet, index);
+        }
+    }
+
+    /**
+     * 缓存的key：SQL和目标类型
+     */
+    private static final class MapperKey {
+        private final String sql;
+        private final Class<?> type;
+        private final int hash;
+
+        MapperKey(String sql, Class<?> type) {
+            this.sql = sql;
+            this.type = type;
+            this.hash = 31 * sql.hashCode() + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MapperKey)) {
+                return false;
+            }
+            MapperKey other = (MapperKey) o;
+            return type == other.type && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package cn.bluemobi.dylan.util;
+
+import com.mchange.v2.c3p0.C3P0ProxyStatement;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 数据库原生的批量导入：行数据由{@link LoadDataInputStream}边读取边编码，
+ * 通过驱动的setLocalInfileInputStream交给MySQL的LOAD DATA LOCAL INFILE，不经过绑定参数，也不写临时文件。
+ * 方言不支持、驱动没有setLocalInfileInputStream、服务端禁用了LOCAL INFILE或不支持utf8mb4时返回-1，由调用方改用executeBatch
+ */
+final class BulkLoader {
+
+    /**
+     * 提供setLocalInfileInputStream的驱动接口，依次为Connector/J 8和5.1
+     */
+    private static final String[] DRIVER_STATEMENT_CLASSES = {"com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement"};
+    /**
+     * 服务端或驱动禁用LOCAL INFILE时的错误码
+     */
+    private static final int ER_NOT_ALLOWED_COMMAND = 1148;
+    private static final int ER_CLIENT_LOCAL_FILES_DISABLED = 3948;
+    /**
+     * 5.5.3之前的服务端不认识LOAD DATA里的utf8mb4时的错误码
+     */
+    private static final int ER_UNKNOWN_CHARACTER_SET = 1115;
+
+    private BulkLoader() {
+    }
+
+    /**
+     * 批量导入
+     *
+     * @param tableName 要插入的数据库的表名
+     * @param keys      列名
+     * @param first     第一行
+     * @param datas     剩下的行，返回-1时没有被读取
+     * @param options   批量插入的参数，commitInterval大于0时每段导入commitInterval行后提交
+     * @return 导入的行数，不支持时返回-1
+     * @throws SQLException SQL异常，设置了commitInterval时已经提交的数据不会回滚
+     */
+    static long load(String tableName, String[] keys, Map<String, Object> first, Iterator<Map<String, Object>> datas,
+                     BatchOptions options) throws SQLException {
+        /**第一行是byte[]的列写成十六进制**/
+        boolean[] hexColumns = new boolean[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            hexColumns[k] = first.get(keys[k]) instanceof byte[];
+        }
+        String sql = DBConnectionPool.current().getDialect().bulkLoadSql(tableName, keys, hexColumns);
+        if (sql == null) {
+            return -1;
+        }
+        LoadDataInputStream input = new LoadDataInputStream(first, datas, keys, hexColumns);
+        long chunkRows = options.getCommitInterval() > 0 ? options.getCommitInterval() : Long.MAX_VALUE;
+        long affectRowCount = 0;
+        Connection connection = null;
+        Statement statement = null;
+        /**当前这段开始的时间，失败时记录这一段的耗时**/
+        long batchStart = DBMetrics.start();
+        try {
+            /**从数据库连接池中获取数据库连接**/
+            connection = TransactionManager.getConnection();
+            statement = connection.createStatement();
+            input.limit(chunkRows);
+            if (!setLocalInfileInputStream(statement, input)) {
+                return -1;
+            }
+            /**设置不自动提交，以便于在出现异常的时候数据库回滚**/
+            TransactionManager.begin(connection);
+            SqlTracer.sql(sql, null);
+            long start = System.currentTimeMillis();
+            while (input.hasRemaining()) {
+                /**驱动发送完数据后会清除输入流，每段都要重新设置**/
+                if (input.getRowCount() > 0) {
+                    input.limit(chunkRows);
+                    setLocalInfileInputStream(statement, input);
+                }
+                batchStart = DBMetrics.start();
+                try {
+                    affectRowCount += statement.executeUpdate(sql);
+                } catch (SQLException e) {
+                    /**还没有读取任何数据时禁用了LOCAL INFILE或不支持utf8mb4，改用executeBatch**/
+                    if (input.getRowCount() == 0 && (e.getErrorCode() == ER_NOT_ALLOWED_COMMAND
+                            || e.getErrorCode() == ER_CLIENT_LOCAL_FILES_DISABLED
+                            || e.getErrorCode() == ER_UNKNOWN_CHARACTER_SET)) {
+                        SqlTracer.error(sql, e);
+                        TransactionManager.rollback(connection);
+                        return -1;
+                    }
+                    throw e;
+                }
+                DBMetrics.batch(sql, batchStart, (int) input.getChunkRowCount());
+                if (options.getCommitInterval() > 0) {
+                    TransactionManager.commit(connection);
+                }
+                if (options.getProgressListener() != null) {
+                    long elapsed = System.currentTimeMillis() - start;
+                    options.getProgressListener().onProgress(affectRowCount, elapsed,
+                            elapsed == 0 ? affectRowCount * 1000D : affectRowCount * 1000D / elapsed);
+                }
+            }
+            TransactionManager.commit(connection);
+            SqlTracer.batchInserted(affectRowCount);
+            TransactionManager.invalidate(tableName);
+        } catch (Exception e) {
+            DBMetrics.statement(sql, batchStart, -1, true);
+            if (connection != null) {
+                TransactionManager.rollback(connection);
+            }
+            SqlTracer.error(sql, e);
+            throw e;
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            if (connection != null) {
+                TransactionManager.release(connection);
+            }
+        }
+        return affectRowCount;
+    }
+
+    /**
+     * 通过反射调用驱动的setLocalInfileInputStream，不直接依赖MySQL驱动；
+     * c3p0的Statement通过rawStatementOperation调用，其他连接池通过unwrap获取驱动的Statement
+     *
+     * @return 驱动是否支持
+     */
+    private static boolean setLocalInfileInputStream(Statement statement, InputStream input) throws SQLException {
+        for (String className : DRIVER_STATEMENT_CLASSES) {
+            Method method;
+            Class<?> type;
+            try {
+                type = Class.forName(className);
+                method = type.getMethod("setLocalInfileInputStream", InputStream.class);
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                continue;
+            }
+            try {
+                if (statement instanceof C3P0ProxyStatement) {
+                    ((C3P0ProxyStatement) statement).rawStatementOperation(method, C3P0ProxyStatement.RAW_STATEMENT,
+                            new Object[]{input});
+                    return true;
+                }
+                Object target = type.isInstance(statement) ? statement
+                        : statement.isWrapperFor(type) ? statement.unwrap(type) : null;
+                if (target != null) {
+                    method.invoke(target, input);
+                    return true;
+                }
+            } catch (IllegalAccessException | IllegalArgumentException | AbstractMethodError | SQLException e) {
+                /**不是这个驱动的Statement，或者驱动不支持unwrap**/
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+            }
+        }
+        return false;
+    }
+}
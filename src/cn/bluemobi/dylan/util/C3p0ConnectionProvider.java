@@ -0,0 +1,179 @@
+package cn.bluemobi.dylan.util;
+
+import com.mchange.v2.c3p0.C3P0ProxyConnection;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import com.mchange.v2.c3p0.DataSources;
+
+import java.beans.PropertyVetoException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * 基于c3p0的连接池
+ */
+public class C3p0ConnectionProvider implements ConnectionProvider {
+
+    /**
+     * 每个连接默认缓存的PreparedStatement数量
+     */
+    public static final int DEFAULT_MAX_STATEMENTS_PER_CONNECTION = 50;
+
+    /**
+     * 在构造函数中创建并配置完成后不再改变，ComboPooledDataSource本身是线程安全的
+     */
+    private final ComboPooledDataSource cpds = new ComboPooledDataSource();
+    /**
+     * PreparedStatement缓存命中率统计，未开启统计时为null
+     */
+    private StatementCacheMonitor statementCacheMonitor;
+
+    /**
+     * @param properties 属性文件中的配置
+     */
+    public C3p0ConnectionProvider(Properties properties) {
+        try {
+            /**获取属性文件中的值**/
+            String driverClassName = properties.getProperty("jdbc.driverClassName");
+            String url = properties.getProperty("jdbc.url");
+            String username = properties.getProperty("jdbc.username");
+            String password = properties.getProperty("jdbc.password");
+
+            /**设置数据库连接驱动**/
+            cpds.setDriverClass(driverClassName);
+            /**设置数据库连接地址**/
+            cpds.setJdbcUrl(url);
+            /**设置数据库连接用户名**/
+            cpds.setUser(username);
+            /**设置数据库连接密码**/
+            cpds.setPassword(password);
+
+            /**初始化时创建的连接数,应在minPoolSize与maxPoolSize之间取值.默认为3**/
+            cpds.setInitialPoolSize(3);
+            /**连接池中保留的最大连接数据.默认为15**/
+            cpds.setMaxPoolSize(10);
+            /**当连接池中的连接用完时，C3PO一次性创建新的连接数目;**/
+            cpds.setAcquireIncrement(1);
+            /**隔多少秒检查所有连接池中的空闲连接,默认为0表示不检查;**/
+            cpds.setIdleConnectionTestPeriod(60);
+            /**最大空闲时间,超过空闲时间的连接将被丢弃.为0或负数据则永不丢弃.默认为0;**/
+            cpds.setMaxIdleTime(3000);
+
+            /**因性能消耗大请只在需要的时候使用它。如果设为true那么在每个connection提交的
+             时候都将校验其有效性。建议使用idleConnectionTestPeriod或automaticTestTable
+             等方法来提升连接测试的性能。Default: false**/
+            cpds.setTestConnectionOnCheckout(true);
+
+            /**如果设为true那么在取得连接的同时将校验连接的有效性。Default: false **/
+            cpds.setTestConnectionOnCheckin(true);
+            /**定义在从数据库获取新的连接失败后重复尝试获取的次数，默认为30;**/
+            cpds.setAcquireRetryAttempts(30);
+            /**两次连接中间隔时间默认为1000毫秒**/
+            cpds.setAcquireRetryDelay(1000);
+            /** 获取连接失败将会引起所有等待获取连接的线程异常,
+             但是数据源仍有效的保留,并在下次调用getConnection()的时候继续尝试获取连接.如果设为true,
+             那么尝试获取连接失败后该数据源将申明已经断开并永久关闭.默认为false**/
+            cpds.setBreakAfterAcquireFailure(true);
+
+            /**PreparedStatement缓存属于单个连接，按连接设置缓存数量，maxStatements为0表示不限制整个连接池的总数，
+             同样的sql在同一个连接上再次预编译时直接复用，不会再到数据库做硬解析**/
+            int maxStatements = Integer.parseInt(properties.getProperty("jdbc.maxStatements", "0"));
+            int maxStatementsPerConnection = Integer.parseInt(properties.getProperty("jdbc.maxStatementsPerConnection",
+                    String.valueOf(DEFAULT_MAX_STATEMENTS_PER_CONNECTION)));
+            cpds.setMaxStatements(maxStatements);
+            cpds.setMaxStatementsPerConnection(maxStatementsPerConnection);
+            /**是否统计PreparedStatement缓存的命中率，统计会在每次预编译时增加少量开销**/
+            if (maxStatementsPerConnection > 0
+                    && Boolean.parseBoolean(properties.getProperty("jdbc.statementCacheStatistics", "false"))) {
+                statementCacheMonitor = new StatementCacheMonitor(maxStatementsPerConnection);
+            }
+        } catch (PropertyVetoException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 获取数据库连接，ComboPooledDataSource本身是线程安全的，这里不加锁，多个线程可以同时获取连接
+     *
+     * @return 数据库连接
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return cpds.getConnection();
+    }
+
+    @Override
+    public void onPrepareStatement(Connection connection, String statementKey) throws SQLException {
+        if (statementCacheMonitor == null || !(connection instanceof C3P0ProxyConnection)) {
+            return;
+        }
+        try {
+            /**c3p0每次借出的代理对象都不同，缓存属于底层的物理连接**/
+            Object connectionId = ((C3P0ProxyConnection) connection).rawConnectionOperation(IDENTITY_HASH_CODE,
+                    null, new Object[]{C3P0ProxyConnection.RAW_CONNECTION});
+            statementCacheMonitor.record(connectionId, statementKey);
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return cpds.getMaxPoolSize();
+    }
+
+    @Override
+    public int getNumBusyConnections() throws SQLException {
+        return cpds.getNumBusyConnectionsAllUsers();
+    }
+
+    @Override
+    public int getNumIdleConnections() throws SQLException {
+        return cpds.getNumIdleConnectionsAllUsers();
+    }
+
+    @Override
+    public int getMaxStatementsPerConnection() {
+        return cpds.getMaxStatementsPerConnection();
+    }
+
+    @Override
+    public int getStatementCacheSize() throws SQLException {
+        return cpds.getStatementCacheNumStatementsAllUsers();
+    }
+
+    /**
+     * @return PreparedStatement缓存命中次数，需要设置jdbc.statementCacheStatistics=true，未开启统计时返回-1
+     */
+    @Override
+    public long getStatementCacheHitCount() {
+        return statementCacheMonitor == null ? -1L : statementCacheMonitor.getHitCount();
+    }
+
+    /**
+     * @return PreparedStatement缓存未命中次数，需要设置jdbc.statementCacheStatistics=true，未开启统计时返回-1
+     */
+    @Override
+    public long getStatementCacheMissCount() {
+        return statementCacheMonitor == null ? -1L : statementCacheMonitor.getMissCount();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        DataSources.destroy(cpds);
+    }
+
+    /**
+     * 用于通过c3p0获取物理连接的标识
+     */
+    private static final Method IDENTITY_HASH_CODE;
+
+    static {
+        try {
+            IDENTITY_HASH_CODE = System.class.getMethod("identityHashCode", Object.class);
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 结果集的列索引，不可变，每个结果集只创建一次，由该结果集的所有行共享，
+ * 避免每一行都重复保存列名和哈希表
+ */
+public final class ColumnIndex {
+
+    /**
+     * 按结果集顺序排列的列名
+     */
+    private final String[] columnNames;
+    /**
+     * 列名到列下标(从0开始)的映射，列名重复时取最后一列，与原先逐行put到HashMap的结果一致
+     */
+    private final Map<String, Integer> positions;
+    /**
+     * 去重后每个列名实际对应的列下标，按结果集顺序排列
+     */
+    private final int[] distinctPositions;
+
+    private ColumnIndex(String[] columnNames) {
+        this.columnNames = columnNames;
+        positions = new HashMap<>(columnNames.length * 2);
+        for (int i = 0; i < columnNames.length; i++) {
+            positions.put(columnNames[i], i);
+        }
+        distinctPositions = new int[positions.size()];
+        int j = 0;
+        for (int i = 0; i < columnNames.length; i++) {
+            if (positions.get(columnNames[i]) == i) {
+                distinctPositions[j++] = i;
+            }
+        }
+    }
+
+    /**
+     * 根据结果集的数据结构对象创建列索引
+     *
+     * @param metaData 结果集的数据结构对象
+     * @return 列索引
+     * @throws SQLException SQL异常
+     */
+    public static ColumnIndex of(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        /**Oracle分页查询最后多出的行号列不属于查询的结果**/
+        if (columnCount > 0 && OracleDialect.ROW_NUMBER_COLUMN.equalsIgnoreCase(metaData.getColumnName(columnCount))) {
+            columnCount--;
+        }
+        String[] columnNames = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = metaData.getColumnName(i + 1);
+        }
+        return new ColumnIndex(columnNames);
+    }
+
+    /**
+     * 读取结果集的当前行
+     *
+     * @param resultSet 已经定位到某一行的结果集
+     * @return 当前行的只读Map
+     * @throws SQLException SQL异常
+     */
+    public RowMap readRow(ResultSet resultSet) throws SQLException {
+        Object[] values = new Object[columnNames.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = resultSet.getObject(i + 1);
+        }
+        return new RowMap(this, values);
+    }
+
+    /**
+     * 结果集的列数，包括重名的列
+     *
+     * @return 列数
+     */
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * 获取列名
+     *
+     * @param position 列下标，从0开始
+     * @return 列名
+     */
+    public String getColumnName(int position) {
+        return columnNames[position];
+    }
+
+    /**
+     * 获取列名对应的列下标
+     *
+     * @param columnName 列名
+     * @return 列下标，从0开始，不存在时返回-1
+     */
+    public int indexOf(Object columnName) {
+        Integer position = positions.get(columnName);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * 去重后的列数
+     */
+    int distinctSize() {
+        return distinctPositions.length;
+    }
+
+    /**
+     * 去重后第n个列名对应的列下标
+     */
+    int distinctPosition(int n) {
+        return distinctPositions[n];
+    }
+}
@@ -0,0 +1,73 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 连接池的实现，{@link DBConnectionPool}根据属性文件中的jdbc.pool选择：
+ * c3p0使用{@link C3p0ConnectionProvider}，native使用{@link NativeConnectionPool}
+ */
+public interface ConnectionProvider {
+
+    /**
+     * 从连接池获取连接，使用完毕后调用close()归还
+     *
+     * @return 数据库连接
+     * @throws SQLException 获取连接失败或超时
+     */
+    Connection getConnection() throws SQLException;
+
+    /**
+     * 预编译sql之前的回调，用于统计PreparedStatement缓存
+     *
+     * @param connection   从本连接池获取的连接
+     * @param statementKey sql以及结果集类型
+     */
+    default void onPrepareStatement(Connection connection, String statementKey) throws SQLException {
+    }
+
+    /**
+     * @return 连接池的最大连接数
+     */
+    int getMaxPoolSize();
+
+    /**
+     * @return 正在使用的连接数
+     * @throws SQLException SQL异常
+     */
+    int getNumBusyConnections() throws SQLException;
+
+    /**
+     * @return 空闲的连接数
+     * @throws SQLException SQL异常
+     */
+    int getNumIdleConnections() throws SQLException;
+
+    /**
+     * @return 每个连接最多缓存的PreparedStatement数量，为0表示关闭缓存
+     */
+    int getMaxStatementsPerConnection();
+
+    /**
+     * @return 所有连接当前缓存的PreparedStatement总数
+     * @throws SQLException SQL异常
+     */
+    int getStatementCacheSize() throws SQLException;
+
+    /**
+     * @return PreparedStatement缓存命中次数，无法统计时返回-1
+     */
+    long getStatementCacheHitCount();
+
+    /**
+     * @return PreparedStatement缓存未命中次数，无法统计时返回-1
+     */
+    long getStatementCacheMissCount();
+
+    /**
+     * 关闭连接池，释放所有连接
+     *
+     * @throws SQLException SQL异常
+     */
+    void close() throws SQLException;
+}
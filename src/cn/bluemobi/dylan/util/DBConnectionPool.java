@@ -1,83 +1,105 @@
 package cn.bluemobi.dylan.util;
 
-import com.mchange.v2.c3p0.ComboPooledDataSource;
-import com.mchange.v2.c3p0.DataSources;
-
-import java.beans.PropertyVetoException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 数据库连接池对象，单例
+ * 通过属性文件中的jdbc.pool选择连接池的实现：c3p0(默认)或native，
+ * 配置jdbc.replicas后查询使用从库，增删改和事务使用主库；
+ * 数据库方言通过jdbc.dialect配置，没有配置时根据驱动类名、url或者第一个连接的DatabaseMetaData判断；
+ * 除了默认数据源，还可以通过{@link #register(String, String)}注册多个命名的数据源
  * Created by yuandl on 2016-12-16.
  */
 public class DBConnectionPool {
+    /**
+     * 默认数据源的名称
+     */
+    public static final String DEFAULT_NAME = "default";
     private static volatile DBConnectionPool dbConnection;
-    private ComboPooledDataSource cpds;
+    /**
+     * 命名的数据源，名称到属性文件
+     */
+    private static final ConcurrentHashMap<String, String> CONFIG_FILES = new ConcurrentHashMap<>();
+    /**
+     * 已经创建的命名数据源
+     */
+    private static final ConcurrentHashMap<String, DBConnectionPool> NAMED_POOLS = new ConcurrentHashMap<>();
+    /**
+     * 数据源的名称
+     */
+    private final String name;
+    /**
+     * 连接池的实现，在构造函数中创建后不再改变
+     */
+    private final ConnectionProvider provider;
+    /**
+     * 只读从库的路由，没有配置从库时为null
+     */
+    private final ReplicaRouter replicaRouter;
+    /**
+     * 数据库方言，根据属性文件判断不出时在第一次使用时通过连接判断
+     */
+    private volatile Dialect dialect;
 
     /**
      * 在构造函数初始化的时候获取数据库连接
      */
     private DBConnectionPool() {
-        try {
-            /**通过属性文件获取数据库连接的参数值**/
-            Properties properties = new Properties();
-//            FileInputStream fileInputStream = new FileInputStream("src/config/jdbc-mysql.properties");;
-            FileInputStream fileInputStream = new FileInputStream("src/config/jdbc-oracle.properties");;
+//        this(DEFAULT_NAME, "src/config/jdbc-mysql.properties");
+        /**可以通过-Djdbc.config指定其他属性文件，例如压测时使用嵌入式数据库**/
+        this(DEFAULT_NAME, System.getProperty("jdbc.config", "src/config/jdbc-oracle.properties"));
+    }
+
+    /**
+     * 根据属性文件创建数据源
+     *
+     * @param name       数据源的名称
+     * @param configFile 属性文件的路径
+     */
+    private DBConnectionPool(String name, String configFile) {
+        this.name = name;
+        /**通过属性文件获取数据库连接的参数值**/
+        Properties properties = new Properties();
+        try (FileInputStream fileInputStream = new FileInputStream(configFile)) {
             properties.load(fileInputStream);
-            /**获取属性文件中的值**/
-            String driverClassName = properties.getProperty("jdbc.driverClassName");
-            String url = properties.getProperty("jdbc.url");
-            String username = properties.getProperty("jdbc.username");
-            String password = properties.getProperty("jdbc.password");
-
-            /**数据库连接池对象**/
-            cpds = new ComboPooledDataSource();
-
-            /**设置数据库连接驱动**/
-            cpds.setDriverClass(driverClassName);
-            /**设置数据库连接地址**/
-            cpds.setJdbcUrl(url);
-            /**设置数据库连接用户名**/
-            cpds.setUser(username);
-            /**设置数据库连接密码**/
-            cpds.setPassword(password);
-
-            /**初始化时创建的连接数,应在minPoolSize与maxPoolSize之间取值.默认为3**/
-            cpds.setInitialPoolSize(3);
-            /**连接池中保留的最大连接数据.默认为15**/
-            cpds.setMaxPoolSize(10);
-            /**当连接池中的连接用完时，C3PO一次性创建新的连接数目;**/
-            cpds.setAcquireIncrement(1);
-            /**隔多少秒检查所有连接池中的空闲连接,默认为0表示不检查;**/
-            cpds.setIdleConnectionTestPeriod(60);
-            /**最大空闲时间,超过空闲时间的连接将被丢弃.为0或负数据则永不丢弃.默认为0;**/
-            cpds.setMaxIdleTime(3000);
-
-            /**因性能消耗大请只在需要的时候使用它。如果设为true那么在每个connection提交的
-             时候都将校验其有效性。建议使用idleConnectionTestPeriod或automaticTestTable
-             等方法来提升连接测试的性能。Default: false**/
-            cpds.setTestConnectionOnCheckout(true);
-
-            /**如果设为true那么在取得连接的同时将校验连接的有效性。Default: false **/
-            cpds.setTestConnectionOnCheckin(true);
-            /**定义在从数据库获取新的连接失败后重复尝试获取的次数，默认为30;**/
-            cpds.setAcquireRetryAttempts(30);
-            /**两次连接中间隔时间默认为1000毫秒**/
-            cpds.setAcquireRetryDelay(1000);
-            /** 获取连接失败将会引起所有等待获取连接的线程异常,
-             但是数据源仍有效的保留,并在下次调用getConnection()的时候继续尝试获取连接.如果设为true,
-             那么尝试获取连接失败后该数据源将申明已经断开并永久关闭.默认为false**/
-            cpds.setBreakAfterAcquireFailure(true);
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (PropertyVetoException e) {
-            e.printStackTrace();
         }
+        /**跟踪和指标是全局的，只使用默认数据源的配置**/
+        if (DEFAULT_NAME.equals(name)) {
+            SqlTracer.configure(properties);
+            DBMetrics.configure(properties);
+        }
+        dialect = Dialect.forProperties(properties);
+        provider = createProvider(properties);
+        replicaRouter = ReplicaRouter.create(properties);
+    }
 
+    /**
+     * 根据jdbc.pool创建连接池的实现
+     *
+     * @param properties 属性文件中的配置
+     * @return 连接池的实现
+     */
+    static ConnectionProvider createProvider(Properties properties) {
+        String pool = properties.getProperty("jdbc.pool", "c3p0");
+        if ("native".equalsIgnoreCase(pool)) {
+            try {
+                return new NativeConnectionPool(properties);
+            } catch (SQLException e) {
+                throw new IllegalStateException("创建连接池失败", e);
+            }
+        }
+        return new C3p0ConnectionProvider(properties);
     }
 
     /**
@@ -97,12 +119,208 @@ public class DBConnectionPool {
     }
 
     /**
-     * 获取数据库连接
+     * 注册命名的数据源，第一次使用时才创建连接池
+     *
+     * @param name       数据源的名称
+     * @param configFile 属性文件的路径，格式与默认的属性文件相同
+     */
+    public static void register(String name, String configFile) {
+        if (DEFAULT_NAME.equals(name)) {
+            throw new IllegalArgumentException("不能重新注册默认数据源");
+        }
+        CONFIG_FILES.put(name, configFile);
+    }
+
+    /**
+     * 获取命名的数据源，没有注册时使用src/config/jdbc-名称.properties
+     *
+     * @param name 数据源的名称，为null或default时返回默认数据源
+     * @return 数据源
+     */
+    public static DBConnectionPool getInstance(String name) {
+        if (name == null || DEFAULT_NAME.equals(name)) {
+            return getInstance();
+        }
+        DBConnectionPool pool = NAMED_POOLS.get(name);
+        if (pool == null) {
+            synchronized (NAMED_POOLS) {
+                pool = NAMED_POOLS.get(name);
+                if (pool == null) {
+                    String configFile = CONFIG_FILES.get(name);
+                    pool = new DBConnectionPool(name, configFile != null ? configFile : "src/config/jdbc-" + name + ".properties");
+                    NAMED_POOLS.put(name, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return 已经创建的所有数据源，包括默认数据源和命名的数据源，不包括从库
+     */
+    static List<DBConnectionPool> getInstances() {
+        List<DBConnectionPool> pools = new ArrayList<>(NAMED_POOLS.size() + 1);
+        if (dbConnection != null) {
+            pools.add(dbConnection);
+        }
+        pools.addAll(NAMED_POOLS.values());
+        return pools;
+    }
+
+    /**
+     * 获取当前线程使用的数据源，由{@link DataSourceContext}或分片路由决定，没有指定时返回默认数据源
+     *
+     * @return 数据源
+     */
+    public static DBConnectionPool current() {
+        return getInstance(DataSourceContext.current());
+    }
+
+    /**
+     * @return 数据源的名称
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 获取数据库连接，连接池的实现本身是线程安全的，这里不加锁，多个线程可以同时获取连接
+     *
+     * @return 数据库连接
+     */
+    public final Connection getConnection() throws SQLException {
+        long start = DBMetrics.start();
+        Connection connection = provider.getConnection();
+        DBMetrics.checkout(start);
+        return connection;
+    }
+
+    /**
+     * 获取只读查询使用的连接，配置了从库时从可用的从库获取，没有配置或所有从库都不可用时从主库获取
      *
      * @return 数据库连接
      */
-    public final synchronized Connection getConnection() throws SQLException {
-        return cpds.getConnection();
+    public final Connection getReadConnection() throws SQLException {
+        if (replicaRouter == null) {
+            return getConnection();
+        }
+        long start = DBMetrics.start();
+        Connection connection = replicaRouter.getConnection();
+        if (connection == null) {
+            return getConnection();
+        }
+        DBMetrics.checkout(start);
+        return connection;
+    }
+
+    /**
+     * @return 只读从库的路由，没有配置从库时返回null
+     */
+    public ReplicaRouter getReplicaRouter() {
+        return replicaRouter;
+    }
+
+    /**
+     * 获取数据库方言，属性文件中判断不出时从主库获取一个连接，通过DatabaseMetaData判断
+     *
+     * @return 数据库方言
+     * @throws SQLException 获取连接失败
+     */
+    public Dialect getDialect() throws SQLException {
+        Dialect current = dialect;
+        if (current == null) {
+            try (Connection connection = getConnection()) {
+                current = Dialect.forConnection(connection);
+            }
+            dialect = current;
+        }
+        return current;
+    }
+
+    /**
+     * @return 连接池的实现
+     */
+    public ConnectionProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * 预编译sql，同一个连接上同样的sql会命中连接池的PreparedStatement缓存
+     *
+     * @param connection 从连接池获取的连接
+     * @param sql        要预编译的sql
+     * @return PreparedStatement
+     * @throws SQLException SQL异常
+     */
+    public PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+        provider.onPrepareStatement(connection, sql);
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * 预编译sql，同一个连接上同样的sql和结果集类型会命中连接池的PreparedStatement缓存
+     *
+     * @param connection           从连接池获取的连接
+     * @param sql                  要预编译的sql
+     * @param resultSetType        结果集类型
+     * @param resultSetConcurrency 结果集并发类型
+     * @return PreparedStatement
+     * @throws SQLException SQL异常
+     */
+    public PreparedStatement prepareStatement(Connection connection, String sql, int resultSetType,
+                                              int resultSetConcurrency) throws SQLException {
+        /**c3p0的缓存键中只进只读的结果集与prepareStatement(sql)相同，统计命中率时也作为同一条**/
+        boolean defaultType = resultSetType == ResultSet.TYPE_FORWARD_ONLY && resultSetConcurrency == ResultSet.CONCUR_READ_ONLY;
+        provider.onPrepareStatement(connection, defaultType ? sql : sql + '#' + resultSetType + '#' + resultSetConcurrency);
+        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+
+    /**
+     * @return 连接池的最大连接数
+     */
+    public int getMaxPoolSize() {
+        return provider.getMaxPoolSize();
+    }
+
+    /**
+     * @return 每个连接最多缓存的PreparedStatement数量，为0表示关闭缓存
+     */
+    public int getMaxStatementsPerConnection() {
+        return provider.getMaxStatementsPerConnection();
+    }
+
+    /**
+     * @return 所有连接当前缓存的PreparedStatement总数
+     * @throws SQLException SQL异常
+     */
+    public int getStatementCacheSize() throws SQLException {
+        return provider.getStatementCacheSize();
+    }
+
+    /**
+     * @return PreparedStatement缓存命中率，无法统计时返回-1
+     */
+    public double getStatementCacheHitRate() {
+        long hit = provider.getStatementCacheHitCount();
+        long miss = provider.getStatementCacheMissCount();
+        if (hit < 0 || miss < 0) {
+            return -1D;
+        }
+        return hit + miss == 0 ? 0D : (double) hit / (hit + miss);
+    }
+
+    /**
+     * @return PreparedStatement缓存命中次数，无法统计时返回-1
+     */
+    public long getStatementCacheHitCount() {
+        return provider.getStatementCacheHitCount();
+    }
+
+    /**
+     * @return PreparedStatement缓存未命中次数，无法统计时返回-1
+     */
+    public long getStatementCacheMissCount() {
+        return provider.getStatementCacheMissCount();
     }
 
     /**
@@ -111,7 +329,10 @@ public class DBConnectionPool {
      * @throws Throwable
      */
     protected void finalize() throws Throwable {
-        DataSources.destroy(cpds);
+        if (replicaRouter != null) {
+            replicaRouter.close();
+        }
+        provider.close();
         super.finalize();
     }
 }
@@ -0,0 +1,111 @@
+package cn.bluemobi.dylan.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 连接池和DBUtil的运行指标入口，DBUtil和DBConnectionPool通过这里记录指标，
+ * 关闭时只有一次volatile读，不调用System.nanoTime()。
+ * 通过属性文件配置：jdbc.metrics.enabled是否记录(默认true)、jdbc.metrics.slowQueryMillis慢查询阈值、
+ * jdbc.metrics.jmx是否注册到JMX(默认false)，注册的名称为{@link #OBJECT_NAME}
+ */
+public final class DBMetrics {
+
+    /**
+     * JMX中的名称
+     */
+    public static final String OBJECT_NAME = "cn.bluemobi.dylan:type=DBMetrics";
+
+    private static final DefaultMetricsRecorder DEFAULT = new DefaultMetricsRecorder();
+    private static volatile MetricsRecorder recorder = DEFAULT;
+    private static volatile boolean enabled = true;
+
+    private DBMetrics() {
+    }
+
+    /**
+     * 从属性文件读取指标配置
+     *
+     * @param properties 属性文件中的配置
+     */
+    static void configure(Properties properties) {
+        String value = properties.getProperty("jdbc.metrics.enabled");
+        if (value != null) {
+            setEnabled(Boolean.parseBoolean(value.trim()));
+        }
+        value = properties.getProperty("jdbc.metrics.slowQueryMillis");
+        if (value != null) {
+            DEFAULT.setSlowQueryThresholdMillis(Long.parseLong(value.trim()));
+        }
+        if (Boolean.parseBoolean(properties.getProperty("jdbc.metrics.jmx", "false").trim())) {
+            registerMBean();
+        }
+    }
+
+    /**
+     * 把默认的指标记录注册到JMX，已经注册时忽略
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(DEFAULT, name);
+            }
+        } catch (JMException e) {
+            SqlTracer.error("注册JMX失败：" + OBJECT_NAME, e);
+        }
+    }
+
+    public static void setEnabled(boolean enabled) {
+        DBMetrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 替换指标记录的实现
+     *
+     * @param recorder 指标记录，为null时恢复默认实现
+     */
+    public static void setRecorder(MetricsRecorder recorder) {
+        DBMetrics.recorder = recorder == null ? DEFAULT : recorder;
+    }
+
+    /**
+     * @return 默认的指标记录，可以直接读取统计结果
+     */
+    public static DefaultMetricsRecorder getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return 开始计时的时间，关闭时返回0
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    static void checkout(long start) {
+        if (start != 0L && enabled) {
+            recorder.onCheckout(System.nanoTime() - start);
+        }
+    }
+
+    static void statement(String sql, long start, long rows, boolean failed) {
+        if (start != 0L && enabled) {
+            recorder.onStatement(sql, System.nanoTime() - start, rows, failed);
+        }
+    }
+
+    static void batch(String sql, long start, int batchRows) {
+        if (start != 0L && enabled) {
+            recorder.onBatch(sql, batchRows, System.nanoTime() - start);
+        }
+    }
+}
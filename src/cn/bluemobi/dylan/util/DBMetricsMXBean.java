@@ -0,0 +1,69 @@
+package cn.bluemobi.dylan.util;
+
+/**
+ * 通过JMX查看的连接池和sql执行指标，耗时的单位都是微秒
+ */
+public interface DBMetricsMXBean {
+
+    /**
+     * 连接数和最大连接数都是所有已经创建的数据源的合计，不包括从库
+     */
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getMaxPoolSize();
+
+    long getCheckoutCount();
+
+    double getCheckoutWaitMeanMicros();
+
+    long getCheckoutWaitP99Micros();
+
+    long getCheckoutWaitMaxMicros();
+
+    long getStatementCount();
+
+    long getStatementErrorCount();
+
+    double getStatementLatencyMeanMicros();
+
+    long getStatementLatencyP50Micros();
+
+    long getStatementLatencyP99Micros();
+
+    long getStatementLatencyMaxMicros();
+
+    /**
+     * @return 非批量的sql影响或查询到的行数，批量插入的行数只计入getBatchSizeMean
+     */
+    long getRowCount();
+
+    long getBatchCount();
+
+    double getBatchSizeMean();
+
+    long getSlowQueryCount();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long slowQueryThresholdMillis);
+
+    /**
+     * @return 所有已经创建的数据源合计的PreparedStatement缓存命中率，连接池都不能统计时返回-1
+     */
+    double getStatementCacheHitRate();
+
+    /**
+     * 按总耗时排序的sql
+     *
+     * @param limit 最多返回的条数
+     * @return 每条为：总耗时、次数、平均耗时、最大耗时、行数、失败次数和sql
+     */
+    String[] topStatements(int limit);
+
+    /**
+     * 清空所有统计
+     */
+    void reset();
+}
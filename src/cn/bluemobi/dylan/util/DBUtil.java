@@ -5,6 +5,7 @@ import com.sun.istack.internal.Nullable;
 import java.sql.*;
 import java.util.*;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * 数据库JDBC连接工具类
@@ -20,37 +21,65 @@ public class DBUtil {
      * @return 影响的行数
      * @throws SQLException SQL异常
      */
-    public static int insert(String tableName, Map<String, Object> valueMap) throws SQLException {
+    public static int insert(final String tableName, final Map<String, Object> valueMap) throws SQLException {
+        ShardRouter.Shard shard = ShardRouter.shardOf(tableName);
+        if (shard != null) {
+            return DataSourceContext.execute(requireShardKey(shard, tableName, valueMap), () -> insert(tableName, valueMap));
+        }
+        WriteBehindBuffer buffer = writeBehindBuffer;
+        if (buffer != null && !TransactionManager.isActive()) {
+            return buffer.insert(tableName, valueMap);
+        }
+        return insertNow(tableName, valueMap);
+    }
 
+    /**
+     * 不经过延迟写入缓冲，直接执行插入
+     *
+     * @param valueMap  插入数据表中key为列名和value为列对应的值的Map对象
+     * @param tableName 要插入的数据库的表名
+     * @return 影响的行数
+     * @throws SQLException SQL异常
+     */
+    static int insertNow(String tableName, Map<String, Object> valueMap) throws SQLException {
         /**获取数据库插入的Map的键值对的值**/
-        Set<String> keySet = valueMap.keySet();
-        Iterator<String> iterator = keySet.iterator();
-        /**要插入的字段sql，其实就是用key拼起来的**/
-        StringBuilder columnSql = new StringBuilder();
-        /**要插入的字段值，其实就是？**/
-        StringBuilder unknownMarkSql = new StringBuilder();
-        Object[] bindArgs = new Object[valueMap.size()];
-        int i = 0;
-        while (iterator.hasNext()) {
-            String key = iterator.next();
-            columnSql.append(i == 0 ? "" : ",");
-            columnSql.append(key);
+        String[] columns = columnsOf(valueMap);
+        Object[] bindArgs = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            bindArgs[i] = valueMap.get(columns[i]);
+        }
+        return executeUpdate(tableName, insertSql(tableName, columns), bindArgs);
+    }
 
-            unknownMarkSql.append(i == 0 ? "" : ",");
-            unknownMarkSql.append("?");
-            bindArgs[i] = valueMap.get(key);
-            i++;
+    /**
+     * 开启延迟写入，之后不在事务中的insert进入缓冲，由后台线程按表和列合并成批量插入，
+     * 已经开启时先关闭原来的缓冲并写入积压的行
+     *
+     * @param options 延迟写入的参数
+     * @return 延迟写入缓冲
+     */
+    public static synchronized WriteBehindBuffer enableWriteBehind(WriteBehindOptions options) {
+        disableWriteBehind();
+        writeBehindBuffer = new WriteBehindBuffer(options);
+        return writeBehindBuffer;
+    }
+
+    /**
+     * 关闭延迟写入，写入所有积压的行后返回
+     */
+    public static synchronized void disableWriteBehind() {
+        WriteBehindBuffer buffer = writeBehindBuffer;
+        writeBehindBuffer = null;
+        if (buffer != null) {
+            buffer.close();
         }
-        /**开始拼插入的sql语句**/
-        StringBuilder sql = new StringBuilder();
-        sql.append("INSERT INTO ");
-        sql.append(tableName);
-        sql.append(" (");
-        sql.append(columnSql);
-        sql.append(" )  VALUES (");
-        sql.append(unknownMarkSql);
-        sql.append(" )");
-        return executeUpdate(sql.toString(), bindArgs);
+    }
+
+    /**
+     * @return 当前的延迟写入缓冲，没有开启时返回null
+     */
+    public static WriteBehindBuffer getWriteBehindBuffer() {
+        return writeBehindBuffer;
     }
 
     /**
@@ -62,78 +91,318 @@ public class DBUtil {
      * @throws SQLException SQL异常
      */
     public static int insertAll(String tableName, List<Map<String, Object>> datas) throws SQLException {
-        /**影响的行数**/
-        int affectRowCount = -1;
+        return (int) insertAll(tableName, datas.iterator(), new BatchOptions());
+    }
+
+    /**
+     * 流式批量插入，边读取边插入，每批达到行数或字节数上限时执行一次executeBatch，
+     * 内存占用只与每批的大小有关，与数据总量无关
+     *
+     * @param tableName 要插入的数据库的表名
+     * @param datas     插入的数据流，所有行的列与第一行相同
+     * @param options   批量插入的参数
+     * @return 插入的行数
+     * @throws SQLException SQL异常
+     */
+    public static long insertAll(String tableName, Stream<Map<String, Object>> datas, BatchOptions options) throws SQLException {
+        return insertAll(tableName, datas.iterator(), options);
+    }
+
+    /**
+     * 流式批量插入，边读取边插入，每批达到行数或字节数上限时执行一次executeBatch，
+     * 内存占用只与每批的大小有关，与数据总量无关
+     *
+     * @param tableName 要插入的数据库的表名
+     * @param datas     插入的数据，所有行的列与第一行相同
+     * @param options   批量插入的参数
+     * @return 插入的行数
+     * @throws SQLException SQL异常，设置了commitInterval时已经提交的数据不会回滚
+     */
+    public static long insertAll(String tableName, Iterator<Map<String, Object>> datas, BatchOptions options) throws SQLException {
+        return writeAll(tableName, null, datas, options);
+    }
+
+    /**
+     * 批量upsert：keyColumns对应的行存在时更新其他列，不存在时插入，
+     * 代替先查询再insert或update，每批只需要一次往返
+     *
+     * @param tableName  要写入的数据库的表名
+     * @param keyColumns 判断行是否存在的列，必须是主键或唯一索引
+     * @param datas      写入的数据，所有行的列与第一行相同并且包含keyColumns
+     * @return 写入的行数
+     * @throws SQLException SQL异常
+     */
+    public static int upsertAll(String tableName, String[] keyColumns, List<Map<String, Object>> datas) throws SQLException {
+        return (int) upsertAll(tableName, keyColumns, datas.iterator(), new BatchOptions());
+    }
+
+    /**
+     * 流式批量upsert，与{@link #insertAll(String, Iterator, BatchOptions)}使用同样的分批和提交方式，
+     * MySQL使用INSERT ... ON DUPLICATE KEY UPDATE，Oracle使用MERGE INTO，其他数据库使用标准的MERGE，
+     * 每批执行一次executeBatch，不支持多行VALUES模式
+     *
+     * @param tableName  要写入的数据库的表名
+     * @param keyColumns 判断行是否存在的列，必须是主键或唯一索引
+     * @param datas      写入的数据，所有行的列与第一行相同并且包含keyColumns
+     * @param options    批量写入的参数
+     * @return 写入的行数，包括插入和更新的行
+     * @throws SQLException SQL异常，设置了commitInterval时已经提交的数据不会回滚
+     */
+    public static long upsertAll(String tableName, String[] keyColumns, Iterator<Map<String, Object>> datas,
+                                 BatchOptions options) throws SQLException {
+        if (keyColumns == null || keyColumns.length == 0) {
+            throw new IllegalArgumentException("upsert需要至少一个键");
+        }
+        return writeAll(tableName, keyColumns, datas, options);
+    }
+
+    /**
+     * 批量插入或upsert
+     *
+     * @param keyColumns upsert的键，为null时插入
+     */
+    private static long writeAll(String tableName, String[] keyColumns, Iterator<Map<String, Object>> datas,
+                                 BatchOptions options) throws SQLException {
+        if (!datas.hasNext()) {
+            return 0;
+        }
+        ShardRouter.Shard shard = ShardRouter.shardOf(tableName);
+        if (shard != null) {
+            return writeAllShards(shard, tableName, keyColumns, datas, options);
+        }
+        Map<String, Object> first = datas.next();
+        /**获取数据库插入的Map的键值对的值**/
+        String[] keys = columnsOf(first);
+        String sql;
+        if (keyColumns == null) {
+            sql = insertSql(tableName, keys);
+        } else {
+            for (String keyColumn : keyColumns) {
+                if (!Dialect.contains(keys, keyColumn)) {
+                    throw new IllegalArgumentException("upsert的数据中没有键" + keyColumn);
+                }
+            }
+            sql = DBConnectionPool.current().getDialect().upsertSql(tableName, keys, keyColumns);
+        }
+        if (keyColumns == null && options.isBulkLoad()) {
+            /**原生批量导入不支持时还没有读取后面的数据，继续使用executeBatch**/
+            long loadedRowCount = BulkLoader.load(tableName, keys, first, datas, options);
+            if (loadedRowCount >= 0) {
+                return loadedRowCount;
+            }
+        }
+        /**已经插入的行数**/
+        long affectRowCount = 0;
         Connection connection = null;
         PreparedStatement preparedStatement = null;
+        /**当前批次开始的时间，失败时记录这一批的耗时**/
+        long batchStart = DBMetrics.start();
         try {
             /**从数据库连接池中获取数据库连接**/
-            connection = DBConnectionPool.getInstance().getConnection();
-
-
-            Map<String, Object> valueMap = datas.get(0);
-            /**获取数据库插入的Map的键值对的值**/
-            Set<String> keySet = valueMap.keySet();
-            Iterator<String> iterator = keySet.iterator();
-            /**要插入的字段sql，其实就是用key拼起来的**/
-            StringBuilder columnSql = new StringBuilder();
-            /**要插入的字段值，其实就是？**/
-            StringBuilder unknownMarkSql = new StringBuilder();
-            Object[] keys = new Object[valueMap.size()];
-            int i = 0;
-            while (iterator.hasNext()) {
-                String key = iterator.next();
-                keys[i] = key;
-                columnSql.append(i == 0 ? "" : ",");
-                columnSql.append(key);
-
-                unknownMarkSql.append(i == 0 ? "" : ",");
-                unknownMarkSql.append("?");
-                i++;
-            }
-            /**开始拼插入的sql语句**/
-            StringBuilder sql = new StringBuilder();
-            sql.append("INSERT INTO ");
-            sql.append(tableName);
-            sql.append(" (");
-            sql.append(columnSql);
-            sql.append(" )  VALUES (");
-            sql.append(unknownMarkSql);
-            sql.append(" )");
+            connection = TransactionManager.getConnection();
 
-            /**执行SQL预编译**/
-            preparedStatement = connection.prepareStatement(sql.toString());
+            /**多行VALUES模式下数据库支持时合并成一条sql，否则执行SQL预编译使用executeBatch**/
+            MultiRowInsert multiRowInsert = options.isMultiRowValues() && keyColumns == null
+                    ? MultiRowInsert.create(connection, tableName, keys, options) : null;
+            if (multiRowInsert == null) {
+                preparedStatement = DBConnectionPool.current().prepareStatement(connection, sql);
+            }
             /**设置不自动提交，以便于在出现异常的时候数据库回滚**/
-            connection.setAutoCommit(false);
-            System.out.println(sql.toString());
-            for (int j = 0; j < datas.size(); j++) {
-                for (int k = 0; k < keys.length; k++) {
-                    preparedStatement.setObject(k + 1, datas.get(j).get(keys[k]));
+            TransactionManager.begin(connection);
+            SqlTracer.sql(sql, null);
+            long start = System.currentTimeMillis();
+            /**当前批次的行数和估算的字节数**/
+            int batchRows = 0;
+            long batchBytes = 0;
+            /**上次提交以来插入的行数**/
+            long uncommittedRows = 0;
+            Map<String, Object> row = first;
+            while (row != null) {
+                if (multiRowInsert != null) {
+                    batchBytes += multiRowInsert.add(row);
+                } else {
+                    for (int k = 0; k < keys.length; k++) {
+                        Object value = row.get(keys[k]);
+                        preparedStatement.setObject(k + 1, value);
+                        batchBytes += estimateSize(value);
+                    }
+                    preparedStatement.addBatch();
+                }
+                batchRows++;
+                row = datas.hasNext() ? datas.next() : null;
+                boolean full = multiRowInsert != null ? multiRowInsert.isFull(batchBytes)
+                        : batchRows >= options.getBatchSize()
+                        || (options.getMaxBatchBytes() > 0 && batchBytes >= options.getMaxBatchBytes());
+                if (row == null || full) {
+                    batchStart = DBMetrics.start();
+                    if (multiRowInsert != null) {
+                        multiRowInsert.flush();
+                    } else {
+                        preparedStatement.executeBatch();
+                    }
+                    DBMetrics.batch(sql, batchStart, batchRows);
+                    batchStart = DBMetrics.start();
+                    affectRowCount += batchRows;
+                    uncommittedRows += batchRows;
+                    batchRows = 0;
+                    batchBytes = 0;
+                    if (options.getCommitInterval() > 0 && uncommittedRows >= options.getCommitInterval()) {
+                        TransactionManager.commit(connection);
+                        uncommittedRows = 0;
+                    }
+                    if (options.getProgressListener() != null) {
+                        long elapsed = System.currentTimeMillis() - start;
+                        options.getProgressListener().onProgress(affectRowCount, elapsed,
+                                elapsed == 0 ? affectRowCount * 1000D : affectRowCount * 1000D / elapsed);
+                    }
                 }
-                preparedStatement.addBatch();
             }
-            int[] arr = preparedStatement.executeBatch();
-            connection.commit();
-            affectRowCount = arr.length;
-            System.out.println("成功了插入了" + affectRowCount + "行");
-            System.out.println();
+            TransactionManager.commit(connection);
+            SqlTracer.batchInserted(affectRowCount);
+            TransactionManager.invalidate(tableName);
         } catch (Exception e) {
+            DBMetrics.statement(sql, batchStart, -1, true);
             if (connection != null) {
-                connection.rollback();
+                TransactionManager.rollback(connection);
             }
-            e.printStackTrace();
+            SqlTracer.error(sql, e);
             throw e;
         } finally {
             if (preparedStatement != null) {
                 preparedStatement.close();
             }
             if (connection != null) {
-                connection.close();
+                TransactionManager.release(connection);
             }
         }
         return affectRowCount;
     }
 
+    /**
+     * 并行批量插入，把输入按partitionSize切分成分区，在最多parallelism个连接上同时插入，
+     * 每个分区单独提交，某个分区失败时只回滚该分区，其他分区继续插入
+     *
+     * @param tableName 要插入的数据库的表名
+     * @param datas     插入的数据，所有行的列与第一行相同
+     * @param options   批量插入的参数
+     * @return 插入的行数和失败的分区
+     * @throws SQLException 当前线程在事务中、表是分片表或被中断时抛出
+     */
+    public static ParallelLoadResult insertAllParallel(String tableName, Iterator<Map<String, Object>> datas,
+                                                       BatchOptions options) throws SQLException {
+        return ParallelLoader.load(tableName, datas, options);
+    }
+
+    /**
+     * 分片表的批量插入或upsert，按分片键把数据分到各个数据源，每个数据源积累到batchSize行时写入一次，
+     * 每次写入单独提交，失败时已经提交的数据不会回滚
+     */
+    private static long writeAllShards(ShardRouter.Shard shard, final String tableName, String[] keyColumns,
+                                       Iterator<Map<String, Object>> datas, final BatchOptions options) throws SQLException {
+        Map<String, List<Map<String, Object>>> buffers = new HashMap<>();
+        long affectRowCount = 0;
+        while (datas.hasNext()) {
+            Map<String, Object> row = datas.next();
+            String dataSource = requireShardKey(shard, tableName, row);
+            List<Map<String, Object>> buffer = buffers.get(dataSource);
+            if (buffer == null) {
+                buffer = new ArrayList<>();
+                buffers.put(dataSource, buffer);
+            }
+            buffer.add(row);
+            if (buffer.size() >= options.getBatchSize()) {
+                affectRowCount += writeAllShard(dataSource, tableName, keyColumns, buffer, options);
+                buffer.clear();
+            }
+        }
+        for (Map.Entry<String, List<Map<String, Object>>> entry : buffers.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                affectRowCount += writeAllShard(entry.getKey(), tableName, keyColumns, entry.getValue(), options);
+            }
+        }
+        return affectRowCount;
+    }
+
+    private static long writeAllShard(String dataSource, final String tableName, final String[] keyColumns,
+                                      final List<Map<String, Object>> rows, final BatchOptions options) throws SQLException {
+        return DataSourceContext.execute(dataSource, () -> writeAll(tableName, keyColumns, rows.iterator(), options));
+    }
+
+    /**
+     * 根据分片键选择数据源，没有分片键时抛出异常
+     */
+    private static String requireShardKey(ShardRouter.Shard shard, String tableName, Map<String, Object> map) throws SQLException {
+        String dataSource = shard.route(map);
+        if (dataSource == null) {
+            throw new SQLException("分片表" + tableName + "的数据中没有分片键" + shard.keyColumn);
+        }
+        return dataSource;
+    }
+
+    /**
+     * 条件中有分片键时在对应的数据源上修改，否则在所有分片上修改并返回影响的总行数，
+     * 各个分片单独提交
+     */
+    private static int updateShards(ShardRouter.Shard shard, Map<String, Object> whereMap,
+                                    DataSourceCallback<Integer> callback) throws SQLException {
+        String dataSource = shard.route(whereMap);
+        if (dataSource != null) {
+            return DataSourceContext.execute(dataSource, callback);
+        }
+        int affectRowCount = 0;
+        for (String name : shard.strategy.getDataSources()) {
+            affectRowCount += DataSourceContext.execute(name, callback);
+        }
+        return affectRowCount;
+    }
+
+    /**
+     * 条件中有分片键时在对应的数据源上查询，否则在所有分片上查询并按分片顺序合并结果
+     */
+    private static <T> List<T> queryShards(ShardRouter.Shard shard, Map<String, Object> whereMap,
+                                           DataSourceCallback<List<T>> callback) throws SQLException {
+        String dataSource = shard.route(whereMap);
+        if (dataSource != null) {
+            return DataSourceContext.execute(dataSource, callback);
+        }
+        List<T> datas = new ArrayList<>();
+        for (String name : shard.strategy.getDataSources()) {
+            datas.addAll(DataSourceContext.execute(name, callback));
+        }
+        return datas;
+    }
+
+    /**
+     * 在指定的数据源上执行操作，其中调用的DBUtil方法都使用这个数据源，分片路由不再生效
+     *
+     * @param dataSource 数据源的名称，通过{@link DBConnectionPool#register(String, String)}注册
+     * @param callback   要执行的操作
+     * @return 操作的结果
+     * @throws SQLException SQL异常
+     */
+    public static <T> T withDataSource(String dataSource, DataSourceCallback<T> callback) throws SQLException {
+        return DataSourceContext.execute(dataSource, callback);
+    }
+
+    /**
+     * 估算绑定参数占用的字节数，用于控制每批的大小
+     *
+     * @param value 绑定参数
+     * @return 估算的字节数
+     */
+    static long estimateSize(Object value) {
+        if (value == null) {
+            return 1;
+        } else if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() * 2L;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof Number || value instanceof java.util.Date || value instanceof Boolean) {
+            return 8;
+        }
+        return 16;
+    }
+
     /**
      * 执行更新操作
      *
@@ -143,45 +412,23 @@ public class DBUtil {
      * @return 影响的行数
      * @throws SQLException SQL异常
      */
-    public static int update(String tableName, Map<String, Object> valueMap, Map<String, Object> whereMap) throws SQLException {
+    public static int update(final String tableName, final Map<String, Object> valueMap,
+                             final Map<String, Object> whereMap) throws SQLException {
+        ShardRouter.Shard shard = ShardRouter.shardOf(tableName);
+        if (shard != null) {
+            return updateShards(shard, whereMap, () -> update(tableName, valueMap, whereMap));
+        }
         /**获取数据库插入的Map的键值对的值**/
-        Set<String> keySet = valueMap.keySet();
-        Iterator<String> iterator = keySet.iterator();
-        /**开始拼插入的sql语句**/
-        StringBuilder sql = new StringBuilder();
-        sql.append("UPDATE ");
-        sql.append(tableName);
-        sql.append(" SET ");
-
-        /**要更改的的字段sql，其实就是用key拼起来的**/
-        StringBuilder columnSql = new StringBuilder();
-        int i = 0;
-        List<Object> objects = new ArrayList<>();
-        while (iterator.hasNext()) {
-            String key = iterator.next();
-            columnSql.append(i == 0 ? "" : ",");
-            columnSql.append(key + " = ? ");
-            objects.add(valueMap.get(key));
-            i++;
+        String[] columns = columnsOf(valueMap);
+        String[] whereColumns = columnsOf(whereMap);
+        Object[] bindArgs = new Object[columns.length + whereColumns.length];
+        for (int i = 0; i < columns.length; i++) {
+            bindArgs[i] = valueMap.get(columns[i]);
         }
-        sql.append(columnSql);
-
-        /**更新的条件:要更改的的字段sql，其实就是用key拼起来的**/
-        StringBuilder whereSql = new StringBuilder();
-        int j = 0;
-        if (whereMap != null && whereMap.size() > 0) {
-            whereSql.append(" WHERE ");
-            iterator = whereMap.keySet().iterator();
-            while (iterator.hasNext()) {
-                String key = iterator.next();
-                whereSql.append(j == 0 ? "" : " AND ");
-                whereSql.append(key + " = ? ");
-                objects.add(whereMap.get(key));
-                j++;
-            }
-            sql.append(whereSql);
+        for (int j = 0; j < whereColumns.length; j++) {
+            bindArgs[columns.length + j] = whereMap.get(whereColumns[j]);
         }
-        return executeUpdate(sql.toString(), objects.toArray());
+        return executeUpdate(tableName, updateSql(tableName, columns, whereColumns), bindArgs);
     }
 
     /**
@@ -192,32 +439,433 @@ public class DBUtil {
      * @return 影响的行数
      * @throws SQLException SQL执行异常
      */
-    public static int delete(String tableName, Map<String, Object> whereMap) throws SQLException {
+    public static int delete(final String tableName, final Map<String, Object> whereMap) throws SQLException {
+        ShardRouter.Shard shard = ShardRouter.shardOf(tableName);
+        if (shard != null) {
+            return updateShards(shard, whereMap, () -> delete(tableName, whereMap));
+        }
+        /**删除的条件**/
+        String[] whereColumns = columnsOf(whereMap);
+        Object[] bindArgs = null;
+        if (whereColumns.length > 0) {
+            bindArgs = new Object[whereColumns.length];
+            for (int i = 0; i < whereColumns.length; i++) {
+                bindArgs[i] = whereMap.get(whereColumns[i]);
+            }
+        }
+        return executeUpdate(tableName, deleteSql(tableName, whereColumns), bindArgs);
+    }
+
+    /**
+     * 批量修改：第i行使用valueMaps的第i个值和whereMaps的第i个条件，
+     * 列名相同的行使用同一条sql在一个连接上用executeBatch执行，所有行在一个事务中提交
+     *
+     * @param tableName 表名
+     * @param valueMaps 每行修改的值
+     * @param whereMaps 每行的where条件，与valueMaps一一对应
+     * @return 影响的总行数，驱动只返回SUCCESS_NO_INFO时(例如Oracle)每行按1计算
+     * @throws SQLException SQL异常，所有的修改都已回滚
+     */
+    public static int updateAll(String tableName, List<Map<String, Object>> valueMaps,
+                                List<Map<String, Object>> whereMaps) throws SQLException {
+        if (valueMaps.size() != whereMaps.size()) {
+            throw new IllegalArgumentException("valueMaps和whereMaps的数量不同：" + valueMaps.size() + "，" + whereMaps.size());
+        }
+        ShardRouter.Shard shard = ShardRouter.shardOf(tableName);
+        Map<String, Map<String, List<Object[]>>> batches = new LinkedHashMap<>();
+        for (int row = 0; row < valueMaps.size(); row++) {
+            Map<String, Object> valueMap = valueMaps.get(row);
+            Map<String, Object> whereMap = whereMaps.get(row);
+            String[] columns = columnsOf(valueMap);
+            String[] whereColumns = columnsOf(whereMap);
+            Object[] bindArgs = new Object[columns.length + whereColumns.length];
+            for (int i = 0; i < columns.length; i++) {
+                bindArgs[i] = valueMap.get(columns[i]);
+            }
+            for (int j = 0; j < whereColumns.length; j++) {
+                bindArgs[columns.length + j] = whereMap.get(whereColumns[j]);
+            }
+            addBatch(batches, shard, whereMap, updateSql(tableName, columns, whereColumns), bindArgs);
+        }
+        return executeBatches(tableName, batches);
+    }
+
+    /**
+     * 批量删除：条件的列名相同的行使用同一条sql在一个连接上用executeBatch执行，所有行在一个事务中提交
+     *
+     * @param tableName 表名
+     * @param whereMaps 每行的where条件
+     * @return 影响的总行数，驱动只返回SUCCESS_NO_INFO时(例如Oracle)每行按1计算
+     * @throws SQLException SQL异常，所有的删除都已回滚
+     */
+    public static int deleteAll(String tableName, List<Map<String, Object>> whereMaps) throws SQLException {
+        ShardRouter.Shard shard = ShardRouter.shardOf(tableName);
+        Map<String, Map<String, List<Object[]>>> batches = new LinkedHashMap<>();
+        for (Map<String, Object> whereMap : whereMaps) {
+            String[] whereColumns = columnsOf(whereMap);
+            addBatch(batches, shard, whereMap, deleteSql(tableName, whereColumns), whereArgsOf(whereMap, whereColumns));
+        }
+        return executeBatches(tableName, batches);
+    }
+
+    /**
+     * 按单个键批量删除，合并成DELETE FROM t WHERE keyColumn IN (?,?,...)，
+     * 每条sql的键数不超过方言的上限(例如Oracle的IN最多1000个)，键数相同的sql用executeBatch执行，
+     * 所有键在一个事务中提交
+     *
+     * @param tableName 表名
+     * @param keyColumn 键的列名，一般是主键
+     * @param keys      要删除的键，null会被忽略
+     * @return 影响的总行数
+     * @throws SQLException SQL异常，所有的删除都已回滚
+     */
+    public static int deleteAll(String tableName, String keyColumn, Collection<?> keys) throws SQLException {
+        ShardRouter.Shard shard = ShardRouter.shardOf(tableName);
+        /**分片表按分片键把键分到各个数据源，不是分片键时在所有分片上删除**/
+        Map<String, List<Object>> keysByDataSource = new LinkedHashMap<>();
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            String dataSource = shard == null ? DataSourceContext.current()
+                    : shard.route(Collections.<String, Object>singletonMap(keyColumn, key));
+            for (String name : dataSource == null && shard != null
+                    ? shard.strategy.getDataSources() : Collections.singletonList(dataSource)) {
+                List<Object> list = keysByDataSource.get(name);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    keysByDataSource.put(name, list);
+                }
+                list.add(key);
+            }
+        }
+        Map<String, Map<String, List<Object[]>>> batches = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Object>> entry : keysByDataSource.entrySet()) {
+            Dialect dialect = DBConnectionPool.getInstance(entry.getKey()).getDialect();
+            int chunkSize = Math.max(1, Math.min(dialect.getMaxInListSize(), dialect.getMaxBindParameters()));
+            Map<String, List<Object[]>> sqls = new LinkedHashMap<>();
+            List<Object> list = entry.getValue();
+            String fullSql = null;
+            for (int from = 0; from < list.size(); from += chunkSize) {
+                int size = Math.min(chunkSize, list.size() - from);
+                String sql;
+                if (size == chunkSize) {
+                    if (fullSql == null) {
+                        fullSql = deleteInSql(tableName, keyColumn, size);
+                    }
+                    sql = fullSql;
+                } else {
+                    sql = deleteInSql(tableName, keyColumn, size);
+                }
+                List<Object[]> argsList = sqls.get(sql);
+                if (argsList == null) {
+                    argsList = new ArrayList<>();
+                    sqls.put(sql, argsList);
+                }
+                argsList.add(list.subList(from, from + size).toArray());
+            }
+            batches.put(entry.getKey(), sqls);
+        }
+        return executeBatches(tableName, batches);
+    }
+
+    /**
+     * 拼接DELETE FROM t WHERE keyColumn IN (?,?,...)
+     */
+    private static String deleteInSql(String tableName, String keyColumn, int size) {
+        StringBuilder sql = new StringBuilder(32 + tableName.length() + keyColumn.length() + size * 2);
+        sql.append("DELETE FROM ").append(tableName).append(" WHERE ").append(keyColumn).append(" IN (");
+        for (int i = 0; i < size; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * 把一行的sql和参数加入所在数据源的批次，同样的sql即同样列名的行放在一起
+     *
+     * @param batches  数据源到sql到每行参数的批次
+     * @param shard    分片表的路由，不是分片表时为null
+     * @param whereMap 行的where条件，用于选择分片
+     */
+    private static void addBatch(Map<String, Map<String, List<Object[]>>> batches, ShardRouter.Shard shard,
+                                 Map<String, Object> whereMap, String sql, Object[] bindArgs) {
+        String dataSource = shard == null ? DataSourceContext.current() : shard.route(whereMap);
+        /**分片表的条件中没有分片键时在所有分片上执行**/
+        for (String name : dataSource == null && shard != null
+                ? shard.strategy.getDataSources() : Collections.singletonList(dataSource)) {
+            Map<String, List<Object[]>> sqls = batches.get(name);
+            if (sqls == null) {
+                sqls = new LinkedHashMap<>();
+                batches.put(name, sqls);
+            }
+            List<Object[]> argsList = sqls.get(sql);
+            if (argsList == null) {
+                argsList = new ArrayList<>();
+                sqls.put(sql, argsList);
+            }
+            argsList.add(bindArgs);
+        }
+    }
+
+    /**
+     * 依次在每个数据源上执行批次，每个数据源单独提交
+     */
+    private static int executeBatches(final String tableName, Map<String, Map<String, List<Object[]>>> batches)
+            throws SQLException {
+        int affectRowCount = 0;
+        for (final Map.Entry<String, Map<String, List<Object[]>>> entry : batches.entrySet()) {
+            affectRowCount += DataSourceContext.execute(entry.getKey(),
+                    () -> executeBatchUpdate(tableName, entry.getValue()));
+        }
+        return affectRowCount;
+    }
+
+    /**
+     * 在一个连接上执行所有sql的批次，每条sql每{@link BatchOptions#DEFAULT_BATCH_SIZE}行执行一次executeBatch，
+     * 全部执行完后提交一次
+     *
+     * @param tableName 表名，用于使查询缓存失效
+     * @param sqls      sql到每行参数
+     * @return 影响的总行数
+     * @throws SQLException SQL异常，所有的修改都已回滚
+     */
+    private static int executeBatchUpdate(String tableName, Map<String, List<Object[]>> sqls) throws SQLException {
+        int affectRowCount = 0;
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        String sql = null;
+        /**当前批次开始的时间，失败时记录这一批的耗时**/
+        long batchStart = DBMetrics.start();
+        try {
+            /**从数据库连接池中获取数据库连接**/
+            connection = TransactionManager.getConnection();
+            /**设置不自动提交，以便于在出现异常的时候数据库回滚**/
+            TransactionManager.begin(connection);
+            for (Map.Entry<String, List<Object[]>> entry : sqls.entrySet()) {
+                sql = entry.getKey();
+                preparedStatement = DBConnectionPool.current().prepareStatement(connection, sql);
+                SqlTracer.sql(sql, null);
+                List<Object[]> argsList = entry.getValue();
+                int batchRows = 0;
+                batchStart = DBMetrics.start();
+                for (int row = 0; row < argsList.size(); row++) {
+                    Object[] bindArgs = argsList.get(row);
+                    if (bindArgs != null) {
+                        for (int i = 0; i < bindArgs.length; i++) {
+                            preparedStatement.setObject(i + 1, bindArgs[i]);
+                        }
+                    }
+                    preparedStatement.addBatch();
+                    batchRows++;
+                    if (batchRows >= BatchOptions.DEFAULT_BATCH_SIZE || row == argsList.size() - 1) {
+                        for (int count : preparedStatement.executeBatch()) {
+                            affectRowCount += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+                        }
+                        DBMetrics.batch(sql, batchStart, batchRows);
+                        batchRows = 0;
+                        batchStart = DBMetrics.start();
+                    }
+                }
+                preparedStatement.close();
+                preparedStatement = null;
+            }
+            TransactionManager.commit(connection);
+            SqlTracer.updated(sql, affectRowCount);
+            TransactionManager.invalidate(tableName);
+        } catch (Exception e) {
+            if (sql != null) {
+                DBMetrics.statement(sql, batchStart, -1, true);
+            }
+            if (connection != null) {
+                TransactionManager.rollback(connection);
+            }
+            SqlTracer.error(sql, e);
+            throw e;
+        } finally {
+            if (preparedStatement != null) {
+                preparedStatement.close();
+            }
+            if (connection != null) {
+                TransactionManager.release(connection);
+            }
+        }
+        return affectRowCount;
+    }
+
+    /**
+     * 获取Map中的列名，数组的顺序就是sql中列和绑定参数的顺序
+     *
+     * @param map key为列名的Map，可以为null
+     * @return 列名数组
+     */
+    private static String[] columnsOf(Map<String, Object> map) {
+        if (map == null || map.isEmpty()) {
+            return NO_COLUMNS;
+        }
+        return map.keySet().toArray(new String[map.size()]);
+    }
+
+    /**
+     * 获取插入的sql，同样的表名和列名只拼接一次
+     */
+    private static String insertSql(String tableName, String[] columns) {
+        SqlCache.Key key = new SqlCache.Key(SqlCache.INSERT, tableName, columns, null);
+        String cached = SqlCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        /**要插入的字段sql，其实就是用key拼起来的**/
+        StringBuilder columnSql = new StringBuilder();
+        /**要插入的字段值，其实就是？**/
+        StringBuilder unknownMarkSql = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            columnSql.append(i == 0 ? "" : ",");
+            columnSql.append(columns[i]);
+
+            unknownMarkSql.append(i == 0 ? "" : ",");
+            unknownMarkSql.append("?");
+        }
+        /**开始拼插入的sql语句**/
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ");
+        sql.append(tableName);
+        sql.append(" (");
+        sql.append(columnSql);
+        sql.append(" )  VALUES (");
+        sql.append(unknownMarkSql);
+        sql.append(" )");
+        String result = sql.toString();
+        SqlCache.put(key, result);
+        return result;
+    }
+
+    /**
+     * 获取更新的sql，同样的表名、列名和条件列名只拼接一次
+     */
+    private static String updateSql(String tableName, String[] columns, String[] whereColumns) {
+        SqlCache.Key key = new SqlCache.Key(SqlCache.UPDATE, tableName, columns, whereColumns);
+        String cached = SqlCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        /**开始拼更新的sql语句**/
+        StringBuilder sql = new StringBuilder();
+        sql.append("UPDATE ");
+        sql.append(tableName);
+        sql.append(" SET ");
+        /**要更改的的字段sql，其实就是用key拼起来的**/
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ",");
+            sql.append(columns[i]).append(" = ? ");
+        }
+        appendWhere(sql, whereColumns);
+        String result = sql.toString();
+        SqlCache.put(key, result);
+        return result;
+    }
+
+    /**
+     * 获取删除的sql，同样的表名和条件列名只拼接一次
+     */
+    private static String deleteSql(String tableName, String[] whereColumns) {
+        SqlCache.Key key = new SqlCache.Key(SqlCache.DELETE, tableName, null, whereColumns);
+        String cached = SqlCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
         /**准备删除的sql语句**/
         StringBuilder sql = new StringBuilder();
         sql.append("DELETE FROM ");
         sql.append(tableName);
+        appendWhere(sql, whereColumns);
+        String result = sql.toString();
+        SqlCache.put(key, result);
+        return result;
+    }
 
-        /**更新的条件:要更改的的字段sql，其实就是用key拼起来的**/
-        StringBuilder whereSql = new StringBuilder();
-        Object[] bindArgs = null;
-        if (whereMap != null && whereMap.size() > 0) {
-            bindArgs = new Object[whereMap.size()];
-            whereSql.append(" WHERE ");
-            /**获取数据库插入的Map的键值对的值**/
-            Set<String> keySet = whereMap.keySet();
-            Iterator<String> iterator = keySet.iterator();
-            int i = 0;
-            while (iterator.hasNext()) {
-                String key = iterator.next();
-                whereSql.append(i == 0 ? "" : " AND ");
-                whereSql.append(key + " = ? ");
-                bindArgs[i] = whereMap.get(key);
-                i++;
+    /**
+     * 获取Map条件查询的sql，同样的表名和条件列名只拼接一次
+     */
+    private static String querySql(String tableName, String[] whereColumns) throws SQLException {
+        SqlCache.Key key = new SqlCache.Key(SqlCache.QUERY, tableName, null, whereColumns);
+        String cached = SqlCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < whereColumns.length; i++) {
+            where.append(i == 0 ? "" : " AND ");
+            where.append(whereColumns[i]).append(" = ? ");
+        }
+        String result = buildQueryString(false, tableName, null, where.toString(), null, null, null, null);
+        SqlCache.put(key, result);
+        return result;
+    }
+
+    /**
+     * 获取按键值分页查询的sql，同样的表名、条件列名和键只拼接一次，
+     * 不包含分页，分页语法由数据源的方言加上
+     *
+     * @param afterKey 是否有键值条件，第一页没有
+     */
+    private static String pageSql(String tableName, String[] whereColumns, String keyColumn,
+                                  boolean afterKey) throws SQLException {
+        SqlCache.Key key = new SqlCache.Key(afterKey ? SqlCache.NEXT_PAGE : SqlCache.FIRST_PAGE, tableName,
+                new String[]{keyColumn}, whereColumns);
+        String cached = SqlCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < whereColumns.length; i++) {
+            where.append(i == 0 ? "" : " AND ");
+            where.append(whereColumns[i]).append(" = ? ");
+        }
+        if (afterKey) {
+            where.append(whereColumns.length == 0 ? "" : " AND ");
+            where.append(keyColumn).append(" > ? ");
+        }
+        String result = buildQueryString(false, tableName, null, where.toString(), null, null, keyColumn, null);
+        SqlCache.put(key, result);
+        return result;
+    }
+
+    /**
+     * 拼接等值的where条件:条件的字段sql，其实就是用key拼起来的
+     */
+    private static void appendWhere(StringBuilder sql, String[] whereColumns) {
+        if (whereColumns.length > 0) {
+            sql.append(" WHERE ");
+            for (int i = 0; i < whereColumns.length; i++) {
+                sql.append(i == 0 ? "" : " AND ");
+                sql.append(whereColumns[i]).append(" = ? ");
             }
-            sql.append(whereSql);
         }
-        return executeUpdate(sql.toString(), bindArgs);
+    }
+
+    /**
+     * 在事务中执行，回调中调用的所有DBUtil方法共用同一个连接，正常结束时只提交一次，抛出异常时回滚，
+     * 嵌套调用时使用保存点
+     *
+     * @param callback 要执行的操作
+     * @return 回调的返回值
+     * @throws SQLException SQL异常，事务已回滚
+     */
+    public static <T> T inTransaction(TransactionCallback<T> callback) throws SQLException {
+        return TransactionManager.execute(false, callback);
+    }
+
+    /**
+     * 在事务中执行
+     *
+     * @param readOnly 是否只读，只读事务结束时不提交
+     * @param callback 要执行的操作
+     * @return 回调的返回值
+     * @throws SQLException SQL异常，事务已回滚
+     */
+    public static <T> T inTransaction(boolean readOnly, TransactionCallback<T> callback) throws SQLException {
+        return TransactionManager.execute(readOnly, callback);
     }
 
     /**
@@ -229,18 +877,33 @@ public class DBUtil {
      * @throws SQLException SQL异常
      */
     public static int executeUpdate(String sql, Object[] bindArgs) throws SQLException {
-        /**影响的行数**/
+        String tableName = QueryCache.tableOf(sql);
+        return executeUpdate(tableName, sql, bindArgs);
+    }
+
+    /**
+     * 执行数据库插入、删除、修改操作，成功后使表相关的查询缓存失效
+     *
+     * @param tableName 修改的表名，为null时使所有查询缓存失效
+     * @param sql       要执行的sql语句
+     * @param bindArgs  绑定的参数
+     * @return 影响的行数
+     * @throws SQLException SQL异常
+     */
+    private static int executeUpdate(String tableName, String sql, Object[] bindArgs) throws SQLException {
         int affectRowCount = -1;
         Connection connection = null;
         PreparedStatement preparedStatement = null;
+        long start = 0L;
         try {
             /**从数据库连接池中获取数据库连接**/
-            connection = DBConnectionPool.getInstance().getConnection();
+            connection = TransactionManager.getConnection();
+            start = DBMetrics.start();
             /**执行SQL预编译**/
-            preparedStatement = connection.prepareStatement(sql.toString());
+            preparedStatement = DBConnectionPool.current().prepareStatement(connection, sql);
             /**设置不自动提交，以便于在出现异常的时候数据库回滚**/
-            connection.setAutoCommit(false);
-            System.out.println(getExecSQL(sql, bindArgs));
+            TransactionManager.begin(connection);
+            SqlTracer.sql(sql, bindArgs);
             if (bindArgs != null) {
                 /**绑定参数设置sql占位符中的值**/
                 for (int i = 0; i < bindArgs.length; i++) {
@@ -249,29 +912,23 @@ public class DBUtil {
             }
             /**执行sql**/
             affectRowCount = preparedStatement.executeUpdate();
-            connection.commit();
-            String operate;
-            if (sql.toUpperCase().indexOf("DELETE FROM") != -1) {
-                operate = "删除";
-            } else if (sql.toUpperCase().indexOf("INSERT INTO") != -1) {
-                operate = "新增";
-            } else {
-                operate = "修改";
-            }
-            System.out.println("成功" + operate + "了" + affectRowCount + "行");
-            System.out.println();
+            TransactionManager.commit(connection);
+            SqlTracer.updated(sql, affectRowCount);
+            DBMetrics.statement(sql, start, affectRowCount, false);
+            TransactionManager.invalidate(tableName);
         } catch (Exception e) {
+            DBMetrics.statement(sql, start, -1, true);
             if (connection != null) {
-                connection.rollback();
+                TransactionManager.rollback(connection);
             }
-            e.printStackTrace();
+            SqlTracer.error(sql, e);
             throw e;
         } finally {
             if (preparedStatement != null) {
                 preparedStatement.close();
             }
             if (connection != null) {
-                connection.close();
+                TransactionManager.release(connection);
             }
         }
         return affectRowCount;
@@ -299,21 +956,185 @@ public class DBUtil {
      */
     public static List<Map<String, Object>> query(String tableName,
                                                   Map<String, Object> whereMap) throws Exception {
-        String whereClause = "";
-        Object[] whereArgs = null;
-        if (whereMap != null && whereMap.size() > 0) {
-            Iterator<String> iterator = whereMap.keySet().iterator();
-            whereArgs = new Object[whereMap.size()];
-            int i = 0;
-            while (iterator.hasNext()) {
-                String key = iterator.next();
-                whereClause += (i == 0 ? "" : " AND ");
-                whereClause += (key + " = ? ");
-                whereArgs[i] = whereMap.get(key);
-                i++;
-            }
+        return query(tableName, whereMap, 0L);
+    }
+
+    /**
+     * 执行sql通过 Map<String, Object>限定查询条件查询，结果映射成指定类型的对象
+     *
+     * @param type      结果类型，JavaBean或String、Long等单列类型
+     * @param tableName 表名
+     * @param whereMap  where条件
+     * @return List<T>
+     * @throws SQLException SQL执行异常
+     */
+    public static <T> List<T> query(Class<T> type, String tableName, Map<String, Object> whereMap) throws SQLException {
+        return query(type, tableName, whereMap, 0L);
+    }
+
+    /**
+     * 执行sql通过 Map<String, Object>限定查询条件查询，结果在ttlMillis内缓存，
+     * 表被DBUtil的增删改修改后缓存自动失效，返回的结果是只读的
+     *
+     * @param tableName 表名
+     * @param whereMap  where条件
+     * @param ttlMillis 缓存时间，毫秒，为0时不使用缓存
+     * @return List<Map<String, Object>>
+     * @throws SQLException SQL执行异常
+     */
+    public static List<Map<String, Object>> query(final String tableName, final Map<String, Object> whereMap,
+                                                  final long ttlMillis) throws SQLException {
+        ShardRouter.Shard shard = ShardRouter.shardOf(tableName);
+        if (shard != null) {
+            return queryShards(shard, whereMap, () -> query(tableName, whereMap, ttlMillis));
         }
-        return query(tableName, false, null, whereClause, whereArgs, null, null, null, null);
+        String[] whereColumns = columnsOf(whereMap);
+        return executeQuery(querySql(tableName, whereColumns), whereArgsOf(whereMap, whereColumns), ttlMillis, tableName);
+    }
+
+    /**
+     * 执行sql通过 Map<String, Object>限定查询条件查询，结果映射成指定类型的对象并在ttlMillis内缓存，
+     * 缓存的对象由所有调用方共享，不要修改
+     *
+     * @param type      结果类型，JavaBean或String、Long等单列类型
+     * @param tableName 表名
+     * @param whereMap  where条件
+     * @param ttlMillis 缓存时间，毫秒，为0时不使用缓存
+     * @return List<T>
+     * @throws SQLException SQL执行异常
+     */
+    public static <T> List<T> query(final Class<T> type, final String tableName, final Map<String, Object> whereMap,
+                                    final long ttlMillis) throws SQLException {
+        ShardRouter.Shard shard = ShardRouter.shardOf(tableName);
+        if (shard != null) {
+            return queryShards(shard, whereMap, () -> query(type, tableName, whereMap, ttlMillis));
+        }
+        String[] whereColumns = columnsOf(whereMap);
+        return executeQuery(type, querySql(tableName, whereColumns), whereArgsOf(whereMap, whereColumns), ttlMillis, tableName);
+    }
+
+    /**
+     * 执行sql条件参数绑定形式的查询，结果映射成指定类型的对象
+     *
+     * @param type        结果类型，JavaBean或String、Long等单列类型
+     * @param tableName   表名
+     * @param whereClause where条件的sql
+     * @param whereArgs   where条件中占位符中的值
+     * @return List<T>
+     * @throws SQLException SQL执行异常
+     */
+    public static <T> List<T> query(Class<T> type, String tableName, String whereClause, Object[] whereArgs) throws SQLException {
+        String sql = buildQueryString(false, tableName, null, whereClause, null, null, null, null);
+        return executeQuery(type, sql, whereArgs);
+    }
+
+    /**
+     * 按键值分页查询：返回keyColumn大于lastKey的前pageSize行，按keyColumn升序排列。
+     * 下一页把本页最后一行的keyColumn作为lastKey传入，数据库通过索引直接定位到lastKey，
+     * 翻到任意一页的开销都相同，不像LIMIT offset那样需要跳过前面的所有行；
+     * keyColumn必须唯一并且有索引，分片的表需要在{@link #withDataSource(String, DataSourceCallback)}中对每个分片分别查询
+     *
+     * @param tableName 表名
+     * @param whereMap  where条件，可以为null
+     * @param keyColumn 排序的键，一般是主键
+     * @param lastKey   上一页最后一行的键值，为null时查询第一页
+     * @param pageSize  每页的行数
+     * @return 本页的数据，少于pageSize行时表示已经是最后一页
+     * @throws SQLException SQL执行异常
+     */
+    public static List<Map<String, Object>> queryPage(String tableName, Map<String, Object> whereMap,
+                                                      String keyColumn, Object lastKey, int pageSize) throws SQLException {
+        String[] whereColumns = columnsOf(whereMap);
+        String sql = DBConnectionPool.current().getDialect().paginate(
+                pageSql(tableName, whereColumns, keyColumn, lastKey != null), 0, checkPageSize(pageSize));
+        return executeQuery(sql, pageArgsOf(whereMap, whereColumns, lastKey));
+    }
+
+    /**
+     * 按键值分页查询，结果映射成指定类型的对象，用法与{@link #queryPage(String, Map, String, Object, int)}相同
+     *
+     * @param type      结果类型，JavaBean或String、Long等单列类型
+     * @param tableName 表名
+     * @param whereMap  where条件，可以为null
+     * @param keyColumn 排序的键，一般是主键
+     * @param lastKey   上一页最后一行的键值，为null时查询第一页
+     * @param pageSize  每页的行数
+     * @return 本页的数据，少于pageSize行时表示已经是最后一页
+     * @throws SQLException SQL执行异常
+     */
+    public static <T> List<T> queryPage(Class<T> type, String tableName, Map<String, Object> whereMap,
+                                        String keyColumn, Object lastKey, int pageSize) throws SQLException {
+        String[] whereColumns = columnsOf(whereMap);
+        String sql = DBConnectionPool.current().getDialect().paginate(
+                pageSql(tableName, whereColumns, keyColumn, lastKey != null), 0, checkPageSize(pageSize));
+        return executeQuery(type, sql, pageArgsOf(whereMap, whereColumns, lastKey));
+    }
+
+    /**
+     * 按主键范围并行扫描整张表：先查询keyColumn的最小值和最大值，把这个范围切分成多段，
+     * 由多个线程在多个连接上同时流式读取，每读取一行就回调一次。
+     * keyColumn必须是整数类型并且有索引，扫描开始后新插入的超出最大值的行不会被读取；
+     * 回调会在多个线程中同时调用，必须是线程安全的，回调抛出异常时停止所有线程的扫描
+     *
+     * @param tableName   表名
+     * @param whereMap    where条件，可以为null
+     * @param keyColumn   切分范围的键，一般是主键
+     * @param parallelism 并行的线程数，为0时使用连接池的最大连接数
+     * @param callback    行回调，行号在所有线程中递增，但不按键值排序
+     * @return 读取的行数
+     * @throws SQLException SQL执行异常，或当前线程在事务中
+     */
+    public static long parallelScan(String tableName, Map<String, Object> whereMap, String keyColumn,
+                                    int parallelism, RowCallback callback) throws SQLException {
+        String[] whereColumns = columnsOf(whereMap);
+        return RangeScanner.scan(tableName, whereColumns, whereArgsOf(whereMap, whereColumns), keyColumn,
+                parallelism, callback);
+    }
+
+    /**
+     * 检查每页的行数
+     */
+    private static int checkPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        return pageSize;
+    }
+
+    /**
+     * 分页查询的参数：where条件的值，不是第一页时最后是lastKey
+     */
+    private static Object[] pageArgsOf(Map<String, Object> whereMap, String[] whereColumns, Object lastKey) {
+        int count = whereColumns.length + (lastKey != null ? 1 : 0);
+        if (count == 0) {
+            return null;
+        }
+        Object[] args = new Object[count];
+        for (int i = 0; i < whereColumns.length; i++) {
+            args[i] = whereMap.get(whereColumns[i]);
+        }
+        if (lastKey != null) {
+            args[count - 1] = lastKey;
+        }
+        return args;
+    }
+
+    /**
+     * 按列名顺序取出Map条件中的值
+     *
+     * @param whereMap     where条件
+     * @param whereColumns 条件的列名
+     * @return 占位符中的值，没有条件时返回null
+     */
+    private static Object[] whereArgsOf(Map<String, Object> whereMap, String[] whereColumns) {
+        if (whereColumns.length == 0) {
+            return null;
+        }
+        Object[] whereArgs = new Object[whereColumns.length];
+        for (int i = 0; i < whereColumns.length; i++) {
+            whereArgs[i] = whereMap.get(whereColumns[i]);
+        }
+        return whereArgs;
     }
 
     /**
@@ -374,23 +1195,32 @@ public class DBUtil {
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
 
+        long start = 0L;
         try {
-            /**获取数据库连接池中的连接**/
-            connection = DBConnectionPool.getInstance().getConnection();
-            preparedStatement = connection.prepareStatement(sql);
+            /**获取数据库连接池中的连接，查询优先使用从库**/
+            connection = TransactionManager.getReadConnection();
+            start = DBMetrics.start();
+            DBConnectionPool pool = DBConnectionPool.current();
+            preparedStatement = pool.prepareStatement(connection, sql);
+            /**按数据库方言设置每次从服务端拉取的行数，例如Oracle驱动默认只拉取10行**/
+            int fetchSize = pool.getDialect().getDefaultFetchSize();
+            if (fetchSize > 0) {
+                preparedStatement.setFetchSize(fetchSize);
+            }
             if (bindArgs != null) {
                 /**设置sql占位符中的值**/
                 for (int i = 0; i < bindArgs.length; i++) {
                     preparedStatement.setObject(i + 1, bindArgs[i]);
                 }
             }
-            System.out.println(getExecSQL(sql, bindArgs));
+            SqlTracer.sql(sql, bindArgs);
             /**执行sql语句，获取结果集**/
             resultSet = preparedStatement.executeQuery();
             datas = getDatas(resultSet);
-            System.out.println();
+            DBMetrics.statement(sql, start, datas.size(), false);
         } catch (Exception e) {
-            e.printStackTrace();
+            DBMetrics.statement(sql, start, -1, true);
+            SqlTracer.error(sql, e);
             throw e;
         } finally {
             if (resultSet != null) {
@@ -400,15 +1230,160 @@ public class DBUtil {
                 preparedStatement.close();
             }
             if (connection != null) {
-                connection.close();
+                TransactionManager.release(connection);
             }
         }
         return datas;
     }
 
+    /**
+     * 执行查询，每一行映射成指定类型的对象。
+     * 列与属性的对应关系对同一条sql只解析一次，数值类型的属性不会装箱
+     *
+     * @param type     结果类型，JavaBean或String、Long等单列类型
+     * @param sql      要执行的sql语句
+     * @param bindArgs 绑定的参数
+     * @return List<T>结果集对象
+     * @throws SQLException SQL执行异常
+     */
+    public static <T> List<T> executeQuery(Class<T> type, String sql, Object[] bindArgs) throws SQLException {
+        List<T> datas = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        long start = 0L;
+        try {
+            /**获取数据库连接池中的连接，查询优先使用从库**/
+            connection = TransactionManager.getReadConnection();
+            start = DBMetrics.start();
+            DBConnectionPool pool = DBConnectionPool.current();
+            preparedStatement = pool.prepareStatement(connection, sql);
+            /**按数据库方言设置每次从服务端拉取的行数，例如Oracle驱动默认只拉取10行**/
+            int fetchSize = pool.getDialect().getDefaultFetchSize();
+            if (fetchSize > 0) {
+                preparedStatement.setFetchSize(fetchSize);
+            }
+            if (bindArgs != null) {
+                /**设置sql占位符中的值**/
+                for (int i = 0; i < bindArgs.length; i++) {
+                    preparedStatement.setObject(i + 1, bindArgs[i]);
+                }
+            }
+            SqlTracer.sql(sql, bindArgs);
+            /**执行sql语句，获取结果集**/
+            resultSet = preparedStatement.executeQuery();
+            RowMapper<T> rowMapper = BeanRowMapper.forQuery(sql, type, resultSet.getMetaData());
+            while (resultSet.next()) {
+                datas.add(rowMapper.mapRow(resultSet, datas.size() + 1));
+            }
+            SqlTracer.queried(datas.size());
+            DBMetrics.statement(sql, start, datas.size(), false);
+        } catch (Exception e) {
+            DBMetrics.statement(sql, start, -1, true);
+            SqlTracer.error(sql, e);
+            throw e;
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (preparedStatement != null) {
+                preparedStatement.close();
+            }
+            if (connection != null) {
+                TransactionManager.release(connection);
+            }
+        }
+        return datas;
+    }
+
+    /**
+     * 执行查询，结果在ttlMillis内缓存，tables中任意一张表被修改后缓存失效，返回的结果是只读的
+     *
+     * @param sql       要执行的sql语句
+     * @param bindArgs  绑定的参数
+     * @param ttlMillis 缓存时间，毫秒，为0时不使用缓存
+     * @param tables    sql查询的表，用于修改后使缓存失效
+     * @return List<Map<String, Object>>结果集对象
+     * @throws SQLException SQL执行异常
+     */
+    public static List<Map<String, Object>> executeQuery(String sql, Object[] bindArgs, long ttlMillis,
+                                                         String... tables) throws SQLException {
+        return cachedQuery(null, sql, bindArgs, ttlMillis, tables);
+    }
+
+    /**
+     * 执行查询，结果映射成指定类型的对象并在ttlMillis内缓存，缓存的对象由所有调用方共享，不要修改
+     *
+     * @param type      结果类型，JavaBean或String、Long等单列类型
+     * @param sql       要执行的sql语句
+     * @param bindArgs  绑定的参数
+     * @param ttlMillis 缓存时间，毫秒，为0时不使用缓存
+     * @param tables    sql查询的表，用于修改后使缓存失效
+     * @return List<T>
+     * @throws SQLException SQL执行异常
+     */
+    public static <T> List<T> executeQuery(Class<T> type, String sql, Object[] bindArgs, long ttlMillis,
+                                           String... tables) throws SQLException {
+        return cachedQuery(type, sql, bindArgs, ttlMillis, tables);
+    }
+
+    /**
+     * 先从查询缓存中获取结果，没有时执行查询并缓存，事务中不使用缓存
+     *
+     * @param type 结果类型，为null时结果为List<Map<String, Object>>
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> cachedQuery(Class<T> type, String sql, Object[] bindArgs, long ttlMillis,
+                                           String[] tables) throws SQLException {
+        boolean cacheable = ttlMillis > 0 && !TransactionManager.isActive();
+        QueryCache.Key key = null;
+        long[] versions = null;
+        if (cacheable) {
+            key = new QueryCache.Key(DataSourceContext.current(), sql, bindArgs, type);
+            List<T> cached = QueryCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            /**版本号要在查询前获取，查询期间表被修改时结果不会被缓存**/
+            versions = QueryCache.versions(tables);
+        }
+        List<T> datas = type == null ? (List<T>) (List<?>) executeQuery(sql, bindArgs) : executeQuery(type, sql, bindArgs);
+        return cacheable ? QueryCache.put(key, datas, tables, versions, ttlMillis) : datas;
+    }
+
+    /**
+     * 流式执行查询，每读取一行就回调一次，不会把整个结果集加载到内存中，适合大数据量的导出
+     *
+     * @param sql      要执行的sql语句
+     * @param bindArgs 绑定的参数
+     * @param callback 行回调
+     * @return 查询到的行数
+     * @throws SQLException SQL执行异常
+     */
+    public static int executeQuery(String sql, Object[] bindArgs, RowCallback callback) throws SQLException {
+        QueryCursor cursor = openCursor(sql, bindArgs);
+        int rowCount = cursor.forEachRow(callback);
+        SqlTracer.queried(rowCount);
+        return rowCount;
+    }
 
     /**
-     * 将结果集对象封装成List<Map<String, Object>> 对象
+     * 打开流式查询游标，遍历期间一直占用一个数据库连接，
+     * 遍历完毕后自动关闭，提前结束遍历时必须调用{@link QueryCursor#close()}
+     *
+     * @param sql      要执行的sql语句
+     * @param bindArgs 绑定的参数
+     * @return 查询游标
+     * @throws SQLException SQL执行异常
+     */
+    public static QueryCursor openCursor(String sql, Object[] bindArgs) throws SQLException {
+        return QueryCursor.open(sql, bindArgs);
+    }
+
+
+    /**
+     * 将结果集对象封装成List<Map<String, Object>> 对象，每一行都是只读的{@link RowMap}
      *
      * @param resultSet 结果多想
      * @return 结果的封装
@@ -416,19 +1391,16 @@ public class DBUtil {
      */
     private static List<Map<String, Object>> getDatas(ResultSet resultSet) throws SQLException {
         List<Map<String, Object>> datas = new ArrayList<>();
-        /**获取结果集的数据结构对象**/
-        ResultSetMetaData metaData = resultSet.getMetaData();
+        /**获取结果集的数据结构对象，列名只读取一次，由所有行共享**/
+        ColumnIndex columnIndex = ColumnIndex.of(resultSet.getMetaData());
         while (resultSet.next()) {
-            Map<String, Object> rowMap = new HashMap<>();
-            for (int i = 1; i <= metaData.getColumnCount(); i++) {
-                rowMap.put(metaData.getColumnName(i), resultSet.getObject(i));
-            }
-            datas.add(rowMap);
+            datas.add(columnIndex.readRow(resultSet));
         }
-        System.out.println("成功查询到了" + datas.size() + "行数据");
-        for (int i = 0; i < datas.size(); i++) {
-            Map<String, Object> map = datas.get(i);
-            System.out.println("第" + (i + 1) + "行：" + map);
+        SqlTracer.queried(datas.size());
+        if (SqlTracer.isEnabled(SqlTracer.Level.TRACE)) {
+            for (int i = 0; i < datas.size(); i++) {
+                SqlTracer.row(i + 1, datas.get(i));
+            }
         }
         return datas;
     }
@@ -457,12 +1429,15 @@ public class DBUtil {
      *                 (excluding the ORDER BY itself). Passing null will use the
      *                 default sort order, which may be unordered.
      * @param limit    Limits the number of rows returned by the query,
-     *                 formatted as LIMIT clause. Passing null denotes no LIMIT clause.
+     *                 formatted as MySQL LIMIT clause ("count" or "offset,count"),
+     *                 translated by the {@link Dialect} of the current datasource.
+     *                 Passing null denotes no LIMIT clause.
      * @return the SQL query string
+     * @throws SQLException when the dialect has to be detected from a connection and it fails
      */
     private static String buildQueryString(
             boolean distinct, String tables, String[] columns, String where,
-            String groupBy, String having, String orderBy, String limit) {
+            String groupBy, String having, String orderBy, String limit) throws SQLException {
         if (isEmpty(groupBy) && !isEmpty(having)) {
             throw new IllegalArgumentException(
                     "HAVING clauses are only permitted when using a groupBy clause");
@@ -488,7 +1463,13 @@ public class DBUtil {
         appendClause(query, " GROUP BY ", groupBy);
         appendClause(query, " HAVING ", having);
         appendClause(query, " ORDER BY ", orderBy);
-        appendClause(query, " LIMIT ", limit);
+        if (!isEmpty(limit)) {
+            /**分页语法由方言决定，MySQL为LIMIT，Oracle为ROWNUM**/
+            int comma = limit.indexOf(',');
+            long offset = comma < 0 ? 0L : Long.parseLong(limit.substring(0, comma).trim());
+            long rowCount = Long.parseLong(limit.substring(comma + 1).trim());
+            return DBConnectionPool.current().getDialect().paginate(query.toString(), offset, rowCount);
+        }
         return query.toString();
     }
 
@@ -540,27 +1521,18 @@ public class DBUtil {
     }
 
     /**
-     * the pattern of limit
+     * 空的列名数组
      */
-    private static final Pattern sLimitPattern =
-            Pattern.compile("\\s*\\d+\\s*(,\\s*\\d+\\s*)?");
+    private static final String[] NO_COLUMNS = new String[0];
 
     /**
-     * After the execution of the complete SQL statement, not necessarily the actual implementation of the SQL statement
-     *
-     * @param sql      SQL statement
-     * @param bindArgs Binding parameters
-     * @return Replace? SQL statement executed after the
+     * 延迟写入缓冲，没有开启时为null
      */
-    private static String getExecSQL(String sql, Object[] bindArgs) {
-        StringBuilder sb = new StringBuilder(sql);
-        if (bindArgs != null && bindArgs.length > 0) {
-            int index = 0;
-            for (int i = 0; i < bindArgs.length; i++) {
-                index = sb.indexOf("?", index);
-                sb.replace(index, index + 1, String.valueOf(bindArgs[i]));
-            }
-        }
-        return sb.toString();
-    }
+    private static volatile WriteBehindBuffer writeBehindBuffer;
+
+    /**
+     * the pattern of limit
+     */
+    private static final Pattern sLimitPattern =
+            Pattern.compile("\\s*\\d+\\s*(,\\s*\\d+\\s*)?");
 }
@@ -0,0 +1,19 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+
+/**
+ * 在指定数据源上执行的操作
+ *
+ * @param <T> 返回值类型
+ */
+public interface DataSourceCallback<T> {
+
+    /**
+     * 执行操作，其中调用的DBUtil方法都使用指定的数据源
+     *
+     * @return 操作的结果
+     * @throws SQLException SQL异常
+     */
+    T doInDataSource() throws SQLException;
+}
@@ -0,0 +1,48 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+
+/**
+ * 当前线程使用的数据源名称，DBUtil的所有方法都从{@link DBConnectionPool#current()}获取连接。
+ * 显式指定了数据源时分片路由不再生效
+ */
+public final class DataSourceContext {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private DataSourceContext() {
+    }
+
+    /**
+     * @return 当前线程指定的数据源名称，没有指定时返回null
+     */
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 在指定的数据源上执行操作，结束后恢复原来的数据源
+     *
+     * @param name     数据源的名称，为null时使用默认数据源并启用分片路由
+     * @param callback 要执行的操作
+     * @return 操作的结果
+     * @throws SQLException SQL异常
+     */
+    public static <T> T execute(String name, DataSourceCallback<T> callback) throws SQLException {
+        String previous = CURRENT.get();
+        if (name == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(name);
+        }
+        try {
+            return callback.doInDataSource();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
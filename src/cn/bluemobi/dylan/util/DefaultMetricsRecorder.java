@@ -0,0 +1,288 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 默认的指标记录：计数使用LongAdder，耗时使用{@link LatencyHistogram}，
+ * 按sql统计次数、耗时和行数，超过阈值的sql通过{@link SqlTracer#slowQuery(String, long)}输出
+ */
+public class DefaultMetricsRecorder implements MetricsRecorder, DBMetricsMXBean {
+
+    /**
+     * 默认的慢查询阈值，毫秒
+     */
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 1000;
+    /**
+     * 最多单独统计的sql条数，超过后的sql合并统计，避免拼接了参数的sql占满内存
+     */
+    public static final int MAX_STATEMENT_SHAPES = 1000;
+    private static final String OTHER_STATEMENTS = "<other>";
+
+    private final LatencyHistogram checkoutWait = new LatencyHistogram();
+    private final LatencyHistogram statementLatency = new LatencyHistogram();
+    private final LongAdder statementErrors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder batchRows = new LongAdder();
+    private final LongAdder slowQueries = new LongAdder();
+    private final ConcurrentHashMap<String, StatementStats> statements = new ConcurrentHashMap<>();
+    private volatile long slowQueryNanos = DEFAULT_SLOW_QUERY_MILLIS * 1000000L;
+
+    /**
+     * 一种sql的统计
+     */
+    private static final class StatementStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder rows = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        void record(long elapsedNanos, long rowCount, boolean failed) {
+            count.increment();
+            totalNanos.add(elapsedNanos);
+            long current;
+            while (elapsedNanos > (current = maxNanos.get()) && !maxNanos.compareAndSet(current, elapsedNanos)) {
+                /**其他线程更新了最大值，重试**/
+            }
+            if (failed) {
+                errors.increment();
+            } else if (rowCount > 0) {
+                rows.add(rowCount);
+            }
+        }
+    }
+
+    @Override
+    public void onCheckout(long waitNanos) {
+        checkoutWait.record(waitNanos);
+    }
+
+    @Override
+    public void onStatement(String sql, long elapsedNanos, long rowCount, boolean failed) {
+        if (!failed && rowCount > 0) {
+            rows.add(rowCount);
+        }
+        record(sql, elapsedNanos, rowCount, failed);
+    }
+
+    /**
+     * 批量插入的行数只计入batchRows，不计入getRowCount，sql的次数和耗时与其他sql一起统计
+     */
+    @Override
+    public void onBatch(String sql, int batchRowCount, long elapsedNanos) {
+        batchCount.increment();
+        batchRows.add(batchRowCount);
+        record(sql, elapsedNanos, batchRowCount, false);
+    }
+
+    /**
+     * 记录一次执行的耗时、错误和这种sql的统计
+     */
+    private void record(String sql, long elapsedNanos, long rowCount, boolean failed) {
+        statementLatency.record(elapsedNanos);
+        if (failed) {
+            statementErrors.increment();
+        }
+        statsOf(sql).record(elapsedNanos, rowCount, failed);
+        if (elapsedNanos >= slowQueryNanos) {
+            slowQueries.increment();
+            SqlTracer.slowQuery(sql, elapsedNanos / 1000000L);
+        }
+    }
+
+    private StatementStats statsOf(String sql) {
+        StatementStats stats = statements.get(sql);
+        if (stats == null) {
+            String key = statements.size() < MAX_STATEMENT_SHAPES ? sql : OTHER_STATEMENTS;
+            StatementStats created = new StatementStats();
+            stats = statements.putIfAbsent(key, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 连接数是所有已经创建的数据源的合计，不包括从库，无法统计时返回-1
+     */
+    @Override
+    public int getActiveConnections() {
+        int count = 0;
+        try {
+            for (DBConnectionPool pool : DBConnectionPool.getInstances()) {
+                count += pool.getProvider().getNumBusyConnections();
+            }
+        } catch (SQLException e) {
+            return -1;
+        }
+        return count;
+    }
+
+    @Override
+    public int getIdleConnections() {
+        int count = 0;
+        try {
+            for (DBConnectionPool pool : DBConnectionPool.getInstances()) {
+                count += pool.getProvider().getNumIdleConnections();
+            }
+        } catch (SQLException e) {
+            return -1;
+        }
+        return count;
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        int count = 0;
+        for (DBConnectionPool pool : DBConnectionPool.getInstances()) {
+            count += pool.getMaxPoolSize();
+        }
+        return count;
+    }
+
+    @Override
+    public long getCheckoutCount() {
+        return checkoutWait.getCount();
+    }
+
+    @Override
+    public double getCheckoutWaitMeanMicros() {
+        return checkoutWait.getMean() / 1000D;
+    }
+
+    @Override
+    public long getCheckoutWaitP99Micros() {
+        return checkoutWait.getPercentile(99) / 1000L;
+    }
+
+    @Override
+    public long getCheckoutWaitMaxMicros() {
+        return checkoutWait.getMax() / 1000L;
+    }
+
+    @Override
+    public long getStatementCount() {
+        return statementLatency.getCount();
+    }
+
+    @Override
+    public long getStatementErrorCount() {
+        return statementErrors.sum();
+    }
+
+    @Override
+    public double getStatementLatencyMeanMicros() {
+        return statementLatency.getMean() / 1000D;
+    }
+
+    @Override
+    public long getStatementLatencyP50Micros() {
+        return statementLatency.getPercentile(50) / 1000L;
+    }
+
+    @Override
+    public long getStatementLatencyP99Micros() {
+        return statementLatency.getPercentile(99) / 1000L;
+    }
+
+    @Override
+    public long getStatementLatencyMaxMicros() {
+        return statementLatency.getMax() / 1000L;
+    }
+
+    @Override
+    public long getRowCount() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    @Override
+    public double getBatchSizeMean() {
+        long count = batchCount.sum();
+        return count == 0 ? 0D : (double) batchRows.sum() / count;
+    }
+
+    @Override
+    public long getSlowQueryCount() {
+        return slowQueries.sum();
+    }
+
+    @Override
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryNanos / 1000000L;
+    }
+
+    @Override
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        this.slowQueryNanos = slowQueryThresholdMillis * 1000000L;
+    }
+
+    /**不能统计的连接池不计入**/
+    @Override
+    public double getStatementCacheHitRate() {
+        long hit = 0;
+        long miss = 0;
+        boolean counted = false;
+        for (DBConnectionPool pool : DBConnectionPool.getInstances()) {
+            long poolHit = pool.getStatementCacheHitCount();
+            long poolMiss = pool.getStatementCacheMissCount();
+            if (poolHit >= 0 && poolMiss >= 0) {
+                hit += poolHit;
+                miss += poolMiss;
+                counted = true;
+            }
+        }
+        if (!counted) {
+            return -1D;
+        }
+        return hit + miss == 0 ? 0D : (double) hit / (hit + miss);
+    }
+
+    @Override
+    public String[] topStatements(int limit) {
+        List<Map.Entry<String, StatementStats>> entries = new ArrayList<>(statements.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, StatementStats>>() {
+            @Override
+            public int compare(Map.Entry<String, StatementStats> o1, Map.Entry<String, StatementStats> o2) {
+                return Long.compare(o2.getValue().totalNanos.sum(), o1.getValue().totalNanos.sum());
+            }
+        });
+        int size = Math.min(Math.max(limit, 0), entries.size());
+        String[] top = new String[size];
+        for (int i = 0; i < size; i++) {
+            StatementStats stats = entries.get(i).getValue();
+            long count = stats.count.sum();
+            long total = stats.totalNanos.sum();
+            top[i] = "total=" + total / 1000L + "us count=" + count
+                    + " mean=" + (count == 0 ? 0 : total / count / 1000L) + "us max=" + stats.maxNanos.get() / 1000L
+                    + "us rows=" + stats.rows.sum() + " errors=" + stats.errors.sum() + " sql=" + entries.get(i).getKey();
+        }
+        return top;
+    }
+
+    @Override
+    public void reset() {
+        checkoutWait.reset();
+        statementLatency.reset();
+        statementErrors.reset();
+        rows.reset();
+        batchCount.reset();
+        batchRows.reset();
+        slowQueries.reset();
+        statements.clear();
+    }
+}
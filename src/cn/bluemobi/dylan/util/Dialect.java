@@ -0,0 +1,284 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * 数据库方言，DBUtil中与数据库相关的sql和驱动参数都由方言决定：分页语法、多行插入、upsert、
+ * 标识符的引号、流式读取和普通查询的fetchSize以及批量sql的上限。
+ * 每个数据源使用一个方言，优先使用属性文件中的jdbc.dialect，其次根据驱动类名或url判断，
+ * 都判断不出时使用第一个连接的DatabaseMetaData；本类是不依赖具体数据库的标准SQL实现，
+ * 其他数据库可以继承本类，并通过jdbc.dialect配置子类的全限定类名
+ */
+public class Dialect {
+
+    /**
+     * 标准SQL的方言
+     */
+    public static final Dialect STANDARD = new Dialect();
+
+    /**
+     * 不需要加引号的标识符
+     */
+    private static final Pattern SIMPLE_IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$#.]*");
+
+    protected Dialect() {
+    }
+
+    /**
+     * 根据属性文件中的配置获取方言
+     *
+     * @param properties 属性文件中的配置
+     * @return 方言，判断不出时返回null
+     */
+    static Dialect forProperties(Properties properties) {
+        String name = properties.getProperty("jdbc.dialect");
+        if (name != null && !name.trim().isEmpty()) {
+            return forName(name.trim());
+        }
+        Dialect dialect = forProductName(properties.getProperty("jdbc.driverClassName"));
+        return dialect != null ? dialect : forProductName(properties.getProperty("jdbc.url"));
+    }
+
+    /**
+     * 根据名称获取方言
+     *
+     * @param name mysql、oracle、standard或者方言子类的全限定类名
+     * @return 方言
+     */
+    static Dialect forName(String name) {
+        if ("standard".equalsIgnoreCase(name)) {
+            return STANDARD;
+        }
+        Dialect dialect = forProductName(name);
+        if (dialect != null && name.indexOf('.') < 0) {
+            return dialect;
+        }
+        try {
+            return (Dialect) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("无法创建数据库方言：" + name, e);
+        }
+    }
+
+    /**
+     * 根据数据库的产品名、驱动类名或url判断方言
+     *
+     * @param name 包含数据库名称的字符串
+     * @return 方言，判断不出时返回null
+     */
+    static Dialect forProductName(String name) {
+        if (name == null) {
+            return null;
+        }
+        String lowerName = name.toLowerCase();
+        if (lowerName.contains("mysql")) {
+            return new MySqlDialect();
+        }
+        if (lowerName.contains("oracle")) {
+            return new OracleDialect();
+        }
+        return null;
+    }
+
+    /**
+     * 根据连接的DatabaseMetaData判断方言
+     *
+     * @param connection 数据库连接
+     * @return 方言，判断不出时返回标准SQL的方言
+     * @throws SQLException SQL异常
+     */
+    static Dialect forConnection(Connection connection) throws SQLException {
+        Dialect dialect = forProductName(connection.getMetaData().getDatabaseProductName());
+        return dialect != null ? dialect : STANDARD;
+    }
+
+    /**
+     * @return 方言的名称
+     */
+    public String getName() {
+        return "standard";
+    }
+
+    /**
+     * 给查询加上分页，标准SQL使用OFFSET ... FETCH NEXT
+     *
+     * @param sql      不带分页的查询
+     * @param offset   跳过的行数
+     * @param rowCount 最多返回的行数
+     * @return 分页的查询
+     */
+    public String paginate(String sql, long offset, long rowCount) {
+        StringBuilder query = new StringBuilder(sql.length() + 48).append(sql);
+        if (offset > 0) {
+            query.append(" OFFSET ").append(offset).append(" ROWS");
+        }
+        query.append(" FETCH NEXT ").append(rowCount).append(" ROWS ONLY");
+        return query.toString();
+    }
+
+    /**
+     * 标识符加引号，标准SQL使用双引号
+     *
+     * @param identifier 表名或列名
+     * @return 加上引号的标识符
+     */
+    public String quoteIdentifier(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * 方言生成的sql中使用的标识符：普通的名称原样使用，包含空格等特殊字符时才加引号，
+     * 避免Oracle等数据库加引号后区分大小写
+     *
+     * @param identifier 表名或列名
+     * @return sql中使用的标识符
+     */
+    protected String identifier(String identifier) {
+        return SIMPLE_IDENTIFIER.matcher(identifier).matches() ? identifier : quoteIdentifier(identifier);
+    }
+
+    /**
+     * 拼接多行插入的sql
+     *
+     * @param tableName 表名
+     * @param columns   列名
+     * @param rows      行数
+     * @return sql，不支持多行插入时返回null，仍然使用executeBatch
+     */
+    public String multiRowInsertSql(String tableName, String[] columns, int rows) {
+        return null;
+    }
+
+    /**
+     * 拼接数据库原生批量导入的sql，数据由{@link LoadDataInputStream}编码：\t分隔列，\n分隔行，\转义，\N表示null
+     *
+     * @param tableName  表名
+     * @param columns    列名
+     * @param hexColumns 数据中写成十六进制的列
+     * @return sql，不支持时返回null，仍然使用executeBatch
+     */
+    public String bulkLoadSql(String tableName, String[] columns, boolean[] hexColumns) {
+        return null;
+    }
+
+    /**
+     * 拼接一行数据的upsert：keyColumns对应的行存在时更新其他列，不存在时插入，
+     * 标准SQL使用MERGE INTO ... USING (VALUES ...)
+     *
+     * @param tableName  表名
+     * @param columns    所有的列名，包含keyColumns
+     * @param keyColumns 判断行是否存在的列，一般是主键或唯一索引
+     * @return sql，绑定参数按columns的顺序
+     */
+    public String upsertSql(String tableName, String[] columns, String[] keyColumns) {
+        StringBuilder sql = new StringBuilder("MERGE INTO ").append(identifier(tableName)).append(" t USING (VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")) s (").append(columnList(columns, "")).append(')');
+        appendMerge(sql, columns, keyColumns);
+        return sql.toString();
+    }
+
+    /**
+     * 拼接MERGE语句的ON、WHEN MATCHED和WHEN NOT MATCHED部分，源表的别名为s，目标表的别名为t
+     */
+    protected void appendMerge(StringBuilder sql, String[] columns, String[] keyColumns) {
+        sql.append(" ON (");
+        for (int i = 0; i < keyColumns.length; i++) {
+            String column = identifier(keyColumns[i]);
+            sql.append(i == 0 ? "" : " AND ").append("t.").append(column).append(" = s.").append(column);
+        }
+        sql.append(')');
+        boolean first = true;
+        for (String column : columns) {
+            if (!contains(keyColumns, column)) {
+                String name = identifier(column);
+                sql.append(first ? " WHEN MATCHED THEN UPDATE SET " : ", ");
+                sql.append("t.").append(name).append(" = s.").append(name);
+                first = false;
+            }
+        }
+        sql.append(" WHEN NOT MATCHED THEN INSERT (").append(columnList(columns, ""))
+                .append(") VALUES (").append(columnList(columns, "s.")).append(')');
+    }
+
+    /**
+     * 逗号分隔的列名
+     *
+     * @param columns 列名
+     * @param prefix  每个列名的前缀
+     */
+    protected String columnList(String[] columns, String prefix) {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            list.append(i == 0 ? "" : ",").append(prefix).append(identifier(columns[i]));
+        }
+        return list.toString();
+    }
+
+    /**
+     * 数组中是否包含某个列名，不区分大小写
+     */
+    static boolean contains(String[] columns, String column) {
+        for (String c : columns) {
+            if (c.equalsIgnoreCase(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 流式读取时的fetchSize
+     */
+    public int getStreamingFetchSize() {
+        return QueryCursor.DEFAULT_FETCH_SIZE;
+    }
+
+    /**
+     * @return 普通查询每次从服务端拉取的行数，为0时使用驱动的默认值
+     */
+    public int getDefaultFetchSize() {
+        return 0;
+    }
+
+    /**
+     * @return 一条sql最多的绑定参数个数
+     */
+    public int getMaxBindParameters() {
+        return 2000;
+    }
+
+    /**
+     * @return IN列表中最多的值的个数
+     */
+    public int getMaxInListSize() {
+        return 1000;
+    }
+
+    /**
+     * @return 一条多行插入的sql最多的行数
+     */
+    public int getMaxMultiRowInsertRows() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * 一条sql估算的最大字节数
+     *
+     * @param connection 数据库连接，需要时从服务端读取
+     * @return 最大字节数，没有限制时返回Long.MAX_VALUE
+     */
+    public long getMaxStatementBytes(Connection connection) {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,41 @@
+package cn.bluemobi.dylan.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按哈希取模分片，整数按数值取模，其他类型按字符串的hashCode取模，
+ * 同一个值在不同进程中总是路由到同一个分片
+ */
+public class HashShardStrategy implements ShardStrategy {
+
+    private final List<String> dataSources;
+
+    /**
+     * @param dataSources 分片的数据源名称，顺序决定了路由结果，不能随意调整
+     */
+    public HashShardStrategy(String... dataSources) {
+        if (dataSources.length == 0) {
+            throw new IllegalArgumentException("dataSources must not be empty");
+        }
+        this.dataSources = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(dataSources)));
+    }
+
+    @Override
+    public String route(Object key) {
+        long hash;
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            hash = ((Number) key).longValue();
+        } else {
+            hash = key.toString().hashCode();
+        }
+        return dataSources.get((int) Math.floorMod(hash, (long) dataSources.size()));
+    }
+
+    @Override
+    public List<String> getDataSources() {
+        return dataSources;
+    }
+}
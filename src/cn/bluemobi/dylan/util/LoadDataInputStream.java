@@ -0,0 +1,292 @@
+package cn.bluemobi.dylan.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 把行数据按LOAD DATA默认的格式编码成的输入流：列之间用\t分隔，行之间用\n分隔，
+ * \、\t、\n、\r和\0用\转义，null写成\N，字符串按UTF-8编码，不成对的代理字符写成?，byte[]的列写成十六进制由sql中的UNHEX还原。
+ * 驱动读取时才从迭代器中取下一批行编码到一个重复使用的缓冲区，整数和字符串直接写入缓冲区，
+ * 不会把整个数据集或临时文件放在内存或磁盘上。
+ * 每次LOAD DATA最多读取{@link #limit(long)}行，驱动读完一段后会关闭输入流，close()只结束当前这段
+ */
+final class LoadDataInputStream extends InputStream {
+
+    /**
+     * 每次编码到缓冲区的字节数，超过后等驱动读完再继续编码
+     */
+    private static final int FILL_SIZE = 64 * 1024;
+    private static final byte[] NULL = {'\\', 'N'};
+    private static final byte[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private final Iterator<Map<String, Object>> datas;
+    private final String[] keys;
+    private final boolean[] hexColumns;
+    /**
+     * 还没有编码的第一行
+     */
+    private Map<String, Object> pending;
+    private byte[] buffer = new byte[FILL_SIZE + 1024];
+    private int position;
+    private int limit;
+    /**
+     * 当前这段最多的行数和已经编码的行数
+     */
+    private long maxRows;
+    private long chunkRowCount;
+    /**
+     * 所有段已经编码的行数
+     */
+    private long rowCount;
+
+    /**
+     * @param first      第一行
+     * @param datas      剩下的行
+     * @param keys       列名
+     * @param hexColumns 写成十六进制的列
+     */
+    LoadDataInputStream(Map<String, Object> first, Iterator<Map<String, Object>> datas, String[] keys,
+                        boolean[] hexColumns) {
+        this.pending = first;
+        this.datas = datas;
+        this.keys = keys;
+        this.hexColumns = hexColumns;
+    }
+
+    /**
+     * 开始新的一段
+     *
+     * @param maxRows 这一段最多的行数
+     */
+    void limit(long maxRows) {
+        this.maxRows = maxRows;
+        this.chunkRowCount = 0;
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * @return 是否还有没有编码的行
+     */
+    boolean hasRemaining() {
+        return pending != null || datas.hasNext();
+    }
+
+    /**
+     * @return 所有段已经编码的行数
+     */
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return 当前这段已经编码的行数
+     */
+    long getChunkRowCount() {
+        return chunkRowCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        int count = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    /**
+     * 驱动每读完一段都会关闭输入流，这里不释放任何资源
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * 编码下一批行到缓冲区
+     *
+     * @return 是否编码了新的数据，当前这段已经结束时返回false
+     */
+    private boolean fill() throws IOException {
+        position = 0;
+        limit = 0;
+        while (limit < FILL_SIZE && chunkRowCount < maxRows) {
+            Map<String, Object> row;
+            if (pending != null) {
+                row = pending;
+                pending = null;
+            } else if (datas.hasNext()) {
+                row = datas.next();
+            } else {
+                break;
+            }
+            writeRow(row);
+            chunkRowCount++;
+            rowCount++;
+        }
+        return limit > 0;
+    }
+
+    private void writeRow(Map<String, Object> row) throws IOException {
+        for (int k = 0; k < keys.length; k++) {
+            if (k > 0) {
+                writeByte('\t');
+            }
+            Object value = row.get(keys[k]);
+            if (value == null) {
+                writeBytes(NULL);
+            } else if (hexColumns[k]) {
+                if (!(value instanceof byte[])) {
+                    throw new IOException("第" + (rowCount + 1) + "行的列" + keys[k] + "不是byte[]");
+                }
+                writeHex((byte[]) value);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte) {
+                writeLong(((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? '1' : '0');
+            } else if (value instanceof BigDecimal) {
+                writeString(((BigDecimal) value).toPlainString());
+            } else if (value instanceof byte[]) {
+                throw new IOException("第" + (rowCount + 1) + "行的列" + keys[k] + "是byte[]，但第一行的值不是");
+            } else if (value instanceof java.util.Date && !(value instanceof java.sql.Date)
+                    && !(value instanceof java.sql.Time) && !(value instanceof Timestamp)) {
+                writeString(new Timestamp(((java.util.Date) value).getTime()).toString());
+            } else if (value instanceof CharSequence) {
+                writeString((CharSequence) value);
+            } else {
+                writeString(value.toString());
+            }
+        }
+        writeByte('\n');
+    }
+
+    private void ensureCapacity(int count) {
+        if (limit + count > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, limit + count)];
+            System.arraycopy(buffer, 0, grown, 0, limit);
+            buffer = grown;
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[limit++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, limit, bytes.length);
+        limit += bytes.length;
+    }
+
+    /**
+     * 直接写入十进制数字，不创建字符串
+     */
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeString(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[limit++] = '-';
+            value = -value;
+        }
+        int start = limit;
+        do {
+            buffer[limit++] = DIGITS[(int) (value % 10)];
+            value /= 10;
+        } while (value != 0);
+        /**数字是倒序写入的**/
+        for (int i = start, j = limit - 1; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+    }
+
+    private void writeHex(byte[] bytes) {
+        ensureCapacity(bytes.length * 2);
+        for (byte b : bytes) {
+            buffer[limit++] = DIGITS[(b >> 4) & 0xf];
+            buffer[limit++] = DIGITS[b & 0xf];
+        }
+    }
+
+    /**
+     * 按UTF-8编码并转义，不创建中间的byte[]
+     */
+    private void writeString(CharSequence value) {
+        int length = value.length();
+        ensureCapacity(length * 3);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '\\':
+                        buffer[limit++] = '\\';
+                        buffer[limit++] = '\\';
+                        break;
+                    case '\t':
+                        buffer[limit++] = '\\';
+                        buffer[limit++] = 't';
+                        break;
+                    case '\n':
+                        buffer[limit++] = '\\';
+                        buffer[limit++] = 'n';
+                        break;
+                    case '\r':
+                        buffer[limit++] = '\\';
+                        buffer[limit++] = 'r';
+                        break;
+                    case '\0':
+                        buffer[limit++] = '\\';
+                        buffer[limit++] = '0';
+                        break;
+                    default:
+                        buffer[limit++] = (byte) c;
+                        break;
+                }
+            } else if (c < 0x800) {
+                buffer[limit++] = (byte) (0xc0 | (c >> 6));
+                buffer[limit++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[limit++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[limit++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[limit++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[limit++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                /**不成对的代理字符不是合法的UTF-8，与String.getBytes一样替换成?**/
+                buffer[limit++] = '?';
+            } else {
+                buffer[limit++] = (byte) (0xe0 | (c >> 12));
+                buffer[limit++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[limit++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package cn.bluemobi.dylan.util;
+
+/**
+ * 连接池和sql执行的指标记录，默认实现是{@link DefaultMetricsRecorder}，
+ * 可以通过{@link DBMetrics#setRecorder(MetricsRecorder)}替换成其他监控系统的实现。
+ * 所有方法都在执行sql的线程上同步调用，实现必须是线程安全的并且不能阻塞
+ */
+public interface MetricsRecorder {
+
+    /**
+     * 从连接池获取到连接
+     *
+     * @param waitNanos 等待的时间，纳秒
+     */
+    void onCheckout(long waitNanos);
+
+    /**
+     * 执行完一条sql
+     *
+     * @param sql          执行的sql，同样结构的sql是同一个字符串
+     * @param elapsedNanos 执行的时间，纳秒，查询包括读取结果集的时间
+     * @param rows         影响或查询到的行数，失败时为-1
+     * @param failed       是否执行失败
+     */
+    void onStatement(String sql, long elapsedNanos, long rows, boolean failed);
+
+    /**
+     * 执行完一批批量插入
+     *
+     * @param sql          批量插入的sql
+     * @param batchRows    这一批的行数
+     * @param elapsedNanos 执行的时间，纳秒
+     */
+    void onBatch(String sql, int batchRows, long elapsedNanos);
+}
@@ -0,0 +1,129 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 多行VALUES的批量插入：把多行数据合并成一条sql执行，sql的形式由{@link Dialect#multiRowInsertSql}决定，
+ * 例如MySQL使用INSERT INTO t (...) VALUES (...),(...)，Oracle使用INSERT ALL INTO t (...) VALUES (...) ... SELECT 1 FROM DUAL。
+ * 每条sql的行数根据方言的绑定参数个数上限和估算的字节数自动调整，不支持的数据库返回null，仍然使用executeBatch
+ */
+final class MultiRowInsert {
+
+    private final Connection connection;
+    private final String tableName;
+    private final String[] keys;
+    private final Dialect dialect;
+    /**
+     * 每条sql最多的行数和估算的最大字节数
+     */
+    private final int maxRows;
+    private final long maxBytes;
+    /**
+     * 缓冲的绑定参数，最多maxRows行
+     */
+    private final Object[] values;
+    private int rowCount;
+    /**
+     * 行数为maxRows的sql，重复使用以命中PreparedStatement缓存
+     */
+    private String fullSql;
+
+    private MultiRowInsert(Connection connection, String tableName, String[] keys, Dialect dialect, int maxRows, long maxBytes) {
+        this.connection = connection;
+        this.tableName = tableName;
+        this.keys = keys;
+        this.dialect = dialect;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.values = new Object[maxRows * keys.length];
+    }
+
+    /**
+     * 根据数据库方言创建多行插入
+     *
+     * @param connection 数据库连接
+     * @param tableName  表名
+     * @param keys       列名
+     * @param options    批量插入的参数
+     * @return 多行插入，数据库不支持时返回null
+     * @throws SQLException SQL异常
+     */
+    static MultiRowInsert create(Connection connection, String tableName, String[] keys, BatchOptions options) throws SQLException {
+        Dialect dialect = DBConnectionPool.current().getDialect();
+        if (dialect.multiRowInsertSql(tableName, keys, 1) == null) {
+            return null;
+        }
+        int maxRows = Math.min(options.getBatchSize(), dialect.getMaxBindParameters() / Math.max(keys.length, 1));
+        maxRows = Math.min(maxRows, dialect.getMaxMultiRowInsertRows());
+        long maxBytes = options.getMaxBatchBytes() > 0 ? options.getMaxBatchBytes() : Long.MAX_VALUE;
+        maxBytes = Math.min(maxBytes, dialect.getMaxStatementBytes(connection));
+        return new MultiRowInsert(connection, tableName, keys, dialect, Math.max(maxRows, 1), maxBytes);
+    }
+
+    /**
+     * 缓冲一行数据
+     *
+     * @param row 行数据
+     * @return 估算的字节数
+     */
+    long add(Map<String, Object> row) {
+        long bytes = 0;
+        int offset = rowCount * keys.length;
+        for (int k = 0; k < keys.length; k++) {
+            Object value = row.get(keys[k]);
+            values[offset + k] = value;
+            bytes += DBUtil.estimateSize(value);
+        }
+        rowCount++;
+        return bytes;
+    }
+
+    /**
+     * 缓冲的数据是否达到一条sql的上限
+     *
+     * @param bytes 缓冲的数据估算的字节数
+     * @return 是否需要执行
+     */
+    boolean isFull(long bytes) {
+        return rowCount >= maxRows || bytes >= maxBytes;
+    }
+
+    /**
+     * 把缓冲的数据合并成一条sql执行
+     *
+     * @throws SQLException SQL异常
+     */
+    void flush() throws SQLException {
+        if (rowCount == 0) {
+            return;
+        }
+        String sql;
+        if (rowCount == maxRows) {
+            if (fullSql == null) {
+                fullSql = dialect.multiRowInsertSql(tableName, keys, maxRows);
+            }
+            sql = fullSql;
+        } else {
+            sql = dialect.multiRowInsertSql(tableName, keys, rowCount);
+        }
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = DBConnectionPool.current().prepareStatement(connection, sql);
+            int count = rowCount * keys.length;
+            for (int i = 0; i < count; i++) {
+                preparedStatement.setObject(i + 1, values[i]);
+            }
+            preparedStatement.executeUpdate();
+        } finally {
+            if (preparedStatement != null) {
+                preparedStatement.close();
+            }
+            Arrays.fill(values, 0, rowCount * keys.length, null);
+            rowCount = 0;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * MySQL的方言：LIMIT分页，INSERT ... VALUES (...),(...)多行插入，INSERT ... ON DUPLICATE KEY UPDATE，
+ * 反引号，fetchSize为Integer.MIN_VALUE时逐行读取，一条sql的大小受max_allowed_packet限制
+ */
+public class MySqlDialect extends Dialect {
+
+    /**
+     * 读取不到max_allowed_packet时使用的默认值，MySQL 5.1的默认值是1M
+     */
+    static final long DEFAULT_MAX_PACKET = 1024 * 1024;
+
+    /**
+     * 服务端的max_allowed_packet，第一次使用时读取，为0表示还没有读取
+     */
+    private volatile long maxPacket;
+
+    @Override
+    public String getName() {
+        return "mysql";
+    }
+
+    @Override
+    public String paginate(String sql, long offset, long rowCount) {
+        StringBuilder query = new StringBuilder(sql.length() + 32).append(sql).append(" LIMIT ");
+        if (offset > 0) {
+            query.append(offset).append(',');
+        }
+        return query.append(rowCount).toString();
+    }
+
+    @Override
+    public String quoteIdentifier(String identifier) {
+        return '`' + identifier.replace("`", "``") + '`';
+    }
+
+    @Override
+    public String multiRowInsertSql(String tableName, String[] columns, int rows) {
+        String unknownMarkSql = unknownMarks(columns.length);
+        StringBuilder sql = new StringBuilder(rows * (unknownMarkSql.length() + 1) + 64);
+        sql.append("INSERT INTO ").append(identifier(tableName)).append(" (").append(columnList(columns, ""))
+                .append(") VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "" : ",").append(unknownMarkSql);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * 唯一键冲突时更新非键列，所有列都是键时把第一个键更新成自己，即冲突时什么都不做
+     */
+    @Override
+    public String upsertSql(String tableName, String[] columns, String[] keyColumns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(identifier(tableName)).append(" (")
+                .append(columnList(columns, "")).append(") VALUES ").append(unknownMarks(columns.length))
+                .append(" ON DUPLICATE KEY UPDATE ");
+        boolean first = true;
+        for (String column : columns) {
+            if (!contains(keyColumns, column)) {
+                String name = identifier(column);
+                sql.append(first ? "" : ", ").append(name).append(" = VALUES(").append(name).append(')');
+                first = false;
+            }
+        }
+        if (first) {
+            String name = identifier(keyColumns[0]);
+            sql.append(name).append(" = ").append(name);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * LOAD DATA LOCAL INFILE，文件名只是占位，数据来自驱动的setLocalInfileInputStream；
+     * 十六进制的列先读到变量中，再用UNHEX还原
+     */
+    @Override
+    public String bulkLoadSql(String tableName, String[] columns, boolean[] hexColumns) {
+        StringBuilder sql = new StringBuilder("LOAD DATA LOCAL INFILE 'stream' INTO TABLE ").append(identifier(tableName))
+                .append(" CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (");
+        StringBuilder set = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ",");
+            if (hexColumns[i]) {
+                sql.append("@hex").append(i);
+                set.append(set.length() == 0 ? " SET " : ", ").append(identifier(columns[i]))
+                        .append(" = UNHEX(@hex").append(i).append(')');
+            } else {
+                sql.append(identifier(columns[i]));
+            }
+        }
+        return sql.append(')').append(set).toString();
+    }
+
+    /**
+     * 一行的占位符(?,?,...)
+     */
+    private static String unknownMarks(int count) {
+        StringBuilder marks = new StringBuilder(count * 2 + 1).append('(');
+        for (int i = 0; i < count; i++) {
+            marks.append(i == 0 ? "?" : ",?");
+        }
+        return marks.append(')').toString();
+    }
+
+    /**
+     * MySQL驱动只有fetchSize为Integer.MIN_VALUE时才会逐行读取，否则把整个结果集读入内存
+     */
+    @Override
+    public int getStreamingFetchSize() {
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public int getMaxBindParameters() {
+        return 65535;
+    }
+
+    /**
+     * MySQL没有IN列表的个数限制，只受max_allowed_packet限制
+     */
+    @Override
+    public int getMaxInListSize() {
+        return 10000;
+    }
+
+    /**
+     * sql中的中文按utf8编码后比估算的字节数大，只使用max_allowed_packet的一半
+     */
+    @Override
+    public long getMaxStatementBytes(Connection connection) {
+        long packet = maxPacket;
+        if (packet > 0) {
+            return packet / 2;
+        }
+        packet = DEFAULT_MAX_PACKET;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT @@max_allowed_packet")) {
+            if (resultSet.next() && resultSet.getLong(1) > 0) {
+                packet = resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            SqlTracer.error("SELECT @@max_allowed_packet", e);
+        }
+        maxPacket = packet;
+        return packet / 2;
+    }
+}
@@ -0,0 +1,676 @@
+package cn.bluemobi.dylan.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 轻量级的连接池实现，用来替代c3p0：
+ * 1.所有连接放在一个无锁的集合中，每个连接用CAS标记是否被占用，获取连接不需要加锁；
+ * 2.优先把线程上一次使用的连接还给这个线程，减少线程之间的争用；
+ * 3.连接池用完时等待其他线程归还，归还的连接直接交给等待的线程；
+ * 4.只有空闲时间超过jdbc.validationIdleTime的连接才会在借出时用Connection.isValid校验，不执行测试sql；
+ * 5.每个连接按jdbc.maxStatementsPerConnection缓存PreparedStatement，关闭时清空参数放回缓存
+ */
+public class NativeConnectionPool implements ConnectionProvider {
+
+    /**
+     * 空闲超过多少毫秒的连接在借出时需要校验，默认500毫秒
+     */
+    public static final long DEFAULT_VALIDATION_IDLE_TIME = 500;
+    /**
+     * 校验连接的超时时间，秒
+     */
+    public static final int DEFAULT_VALIDATION_TIMEOUT = 3;
+    /**
+     * 连接池用完时等待归还的最长时间，毫秒
+     */
+    public static final long DEFAULT_CHECKOUT_TIMEOUT = 30000;
+
+    private static final int NOT_IN_USE = 0;
+    private static final int IN_USE = 1;
+    private static final int REMOVED = -1;
+    /**
+     * 等待归还时每次最多阻塞的时间，超时后重新扫描一遍连接
+     */
+    private static final long HANDOFF_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxPoolSize;
+    private final long validationIdleTime;
+    private final int validationTimeout;
+    private final String validationQuery;
+    private final long checkoutTimeout;
+    private final int maxStatementsPerConnection;
+
+    /**
+     * 连接池中的所有连接，读多写少
+     */
+    private final CopyOnWriteArrayList<PooledConnection> connections = new CopyOnWriteArrayList<>();
+    /**
+     * 每个线程上一次使用的连接
+     */
+    private final ThreadLocal<PooledConnection> lastUsed = new ThreadLocal<>();
+    /**
+     * 已经创建和正在创建的连接数
+     */
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    /**
+     * 正在等待连接的线程数
+     */
+    private final AtomicInteger waiters = new AtomicInteger();
+    /**
+     * 归还的连接直接交给等待的线程
+     */
+    private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<>(true);
+    private final AtomicInteger cachedStatements = new AtomicInteger();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param properties 属性文件中的配置
+     * @throws SQLException 加载驱动或创建初始连接失败
+     */
+    public NativeConnectionPool(Properties properties) throws SQLException {
+        String driverClassName = properties.getProperty("jdbc.driverClassName");
+        try {
+            Class.forName(driverClassName);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("找不到数据库驱动：" + driverClassName, e);
+        }
+        url = properties.getProperty("jdbc.url");
+        username = properties.getProperty("jdbc.username");
+        password = properties.getProperty("jdbc.password");
+        maxPoolSize = Integer.parseInt(properties.getProperty("jdbc.maxPoolSize", "10"));
+        int initialPoolSize = Integer.parseInt(properties.getProperty("jdbc.initialPoolSize", "3"));
+        validationIdleTime = Long.parseLong(properties.getProperty("jdbc.validationIdleTime",
+                String.valueOf(DEFAULT_VALIDATION_IDLE_TIME)));
+        validationTimeout = Integer.parseInt(properties.getProperty("jdbc.validationTimeout",
+                String.valueOf(DEFAULT_VALIDATION_TIMEOUT)));
+        validationQuery = properties.getProperty("jdbc.validationQuery");
+        checkoutTimeout = Long.parseLong(properties.getProperty("jdbc.checkoutTimeout",
+                String.valueOf(DEFAULT_CHECKOUT_TIMEOUT)));
+        maxStatementsPerConnection = Integer.parseInt(properties.getProperty("jdbc.maxStatementsPerConnection",
+                String.valueOf(C3p0ConnectionProvider.DEFAULT_MAX_STATEMENTS_PER_CONNECTION)));
+
+        /**初始化时创建的连接数**/
+        for (int i = 0; i < Math.min(initialPoolSize, maxPoolSize); i++) {
+            PooledConnection entry = tryCreate();
+            if (entry != null) {
+                entry.state.set(NOT_IN_USE);
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return borrow().newProxy();
+    }
+
+    /**
+     * 借出一个连接
+     */
+    private PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("连接池已经关闭");
+        }
+        /**线程亲和：优先取回本线程上一次使用的连接**/
+        PooledConnection last = lastUsed.get();
+        if (last != null && last.tryReserve() && validate(last)) {
+            return last;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(checkoutTimeout);
+        waiters.incrementAndGet();
+        try {
+            while (true) {
+                for (PooledConnection entry : connections) {
+                    if (entry.tryReserve() && validate(entry)) {
+                        return entry;
+                    }
+                }
+                PooledConnection created = tryCreate();
+                if (created != null) {
+                    return created;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SQLException("获取数据库连接超时，等待了" + checkoutTimeout + "毫秒");
+                }
+                PooledConnection handed = handoffQueue.poll(Math.min(remaining, HANDOFF_WAIT_NANOS), TimeUnit.NANOSECONDS);
+                if (handed != null && handed.tryReserve() && validate(handed)) {
+                    return handed;
+                }
+                if (closed) {
+                    throw new SQLException("连接池已经关闭");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待数据库连接时被中断", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * 连接数未达到上限时创建一个新连接，新连接是已借出状态
+     *
+     * @return 新连接，已达到上限时返回null
+     */
+    private PooledConnection tryCreate() throws SQLException {
+        while (true) {
+            int total = totalConnections.get();
+            if (total >= maxPoolSize) {
+                return null;
+            }
+            if (totalConnections.compareAndSet(total, total + 1)) {
+                break;
+            }
+        }
+        try {
+            PooledConnection entry = new PooledConnection(DriverManager.getConnection(url, username, password));
+            connections.add(entry);
+            return entry;
+        } catch (SQLException | RuntimeException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 空闲时间超过阈值的连接才校验，校验失败的连接从连接池中移除
+     *
+     * @param entry 已经被当前线程占用的连接
+     * @return 连接是否可用
+     */
+    private boolean validate(PooledConnection entry) {
+        if (System.currentTimeMillis() - entry.lastAccess <= validationIdleTime) {
+            return true;
+        }
+        boolean valid;
+        try {
+            valid = isValid(entry.raw);
+        } catch (SQLException e) {
+            valid = false;
+        }
+        if (valid) {
+            entry.lastAccess = System.currentTimeMillis();
+        } else {
+            remove(entry);
+        }
+        return valid;
+    }
+
+    /**
+     * 使用Connection.isValid校验，旧的JDBC3驱动不支持时退回到jdbc.validationQuery
+     */
+    private boolean isValid(Connection connection) throws SQLException {
+        try {
+            return connection.isValid(validationTimeout);
+        } catch (AbstractMethodError | SQLFeatureNotSupportedException e) {
+            if (validationQuery == null) {
+                return !connection.isClosed();
+            }
+            Statement statement = connection.createStatement();
+            try {
+                statement.setQueryTimeout(validationTimeout);
+                statement.execute(validationQuery);
+                return true;
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * 归还连接，有线程在等待时直接交给等待的线程
+     */
+    private void release(PooledConnection entry) {
+        if (closed || entry.broken || !entry.reset()) {
+            remove(entry);
+            return;
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        lastUsed.set(entry);
+        entry.state.set(NOT_IN_USE);
+        for (int i = 0; waiters.get() > 0 && i < 64; i++) {
+            if (entry.state.get() != NOT_IN_USE || handoffQueue.offer(entry)) {
+                return;
+            }
+            if ((i & 0xf) == 0xf) {
+                LockSupport.parkNanos(10000);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * 从连接池移除并关闭物理连接
+     */
+    private void remove(PooledConnection entry) {
+        entry.state.set(REMOVED);
+        if (connections.remove(entry)) {
+            totalConnections.decrementAndGet();
+        }
+        entry.closePhysical();
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    @Override
+    public int getNumBusyConnections() {
+        return count(IN_USE);
+    }
+
+    @Override
+    public int getNumIdleConnections() {
+        return count(NOT_IN_USE);
+    }
+
+    private int count(int state) {
+        int count = 0;
+        for (PooledConnection entry : connections) {
+            if (entry.state.get() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getMaxStatementsPerConnection() {
+        return maxStatementsPerConnection;
+    }
+
+    @Override
+    public int getStatementCacheSize() {
+        return cachedStatements.get();
+    }
+
+    @Override
+    public long getStatementCacheHitCount() {
+        return statementCacheHits.get();
+    }
+
+    @Override
+    public long getStatementCacheMissCount() {
+        return statementCacheMisses.get();
+    }
+
+    /**
+     * 关闭连接池，空闲的连接立即关闭，使用中的连接在归还时关闭
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (PooledConnection entry : connections) {
+            if (entry.state.compareAndSet(NOT_IN_USE, REMOVED)) {
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * 判断是否是连接已经断开的异常，SQLState以08开头表示连接异常
+     */
+    private static boolean isFatal(Throwable e) {
+        if (!(e instanceof SQLException)) {
+            return false;
+        }
+        String sqlState = ((SQLException) e).getSQLState();
+        return sqlState != null && sqlState.startsWith("08");
+    }
+
+    /**
+     * 连接池中的一个物理连接
+     */
+    private final class PooledConnection {
+        final Connection raw;
+        final AtomicInteger state = new AtomicInteger(IN_USE);
+        volatile long lastAccess = System.currentTimeMillis();
+        /**
+         * 是否出现过连接断开的异常
+         */
+        volatile boolean broken;
+        private final int defaultIsolation;
+        private boolean autoCommitChanged;
+        private boolean readOnlyChanged;
+        private boolean isolationChanged;
+        /**
+         * 缓存的PreparedStatement，按最近使用排序，只有持有该连接的线程会访问
+         */
+        private final LinkedHashMap<String, PreparedStatement> statements =
+                new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() > maxStatementsPerConnection) {
+                            cachedStatements.decrementAndGet();
+                            closeStatement(eldest.getValue());
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+
+        PooledConnection(Connection raw) throws SQLException {
+            this.raw = raw;
+            this.defaultIsolation = raw.getTransactionIsolation();
+        }
+
+        boolean tryReserve() {
+            return state.compareAndSet(NOT_IN_USE, IN_USE);
+        }
+
+        Connection newProxy() {
+            return (Connection) Proxy.newProxyInstance(NativeConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new ConnectionHandler(this));
+        }
+
+        /**
+         * 归还前恢复连接的默认状态，未提交的事务回滚
+         *
+         * @return 是否恢复成功
+         */
+        boolean reset() {
+            try {
+                if (autoCommitChanged) {
+                    if (!raw.getAutoCommit()) {
+                        raw.rollback();
+                        raw.setAutoCommit(true);
+                    }
+                    autoCommitChanged = false;
+                }
+                if (readOnlyChanged) {
+                    raw.setReadOnly(false);
+                    readOnlyChanged = false;
+                }
+                if (isolationChanged) {
+                    raw.setTransactionIsolation(defaultIsolation);
+                    isolationChanged = false;
+                }
+                return true;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        /**
+         * 预编译sql，优先使用缓存，使用中的PreparedStatement从缓存中取出，关闭时再放回
+         */
+        PreparedStatement prepare(String key, Method method, Object[] args) throws Throwable {
+            PreparedStatement statement = null;
+            if (maxStatementsPerConnection > 0) {
+                statement = statements.remove(key);
+                if (statement != null) {
+                    cachedStatements.decrementAndGet();
+                    statementCacheHits.incrementAndGet();
+                    return statement;
+                }
+                statementCacheMisses.incrementAndGet();
+            }
+            return (PreparedStatement) invokeRaw(raw, method, args);
+        }
+
+        /**
+         * PreparedStatement关闭时放回缓存
+         */
+        void returnStatement(String key, PreparedStatement statement) {
+            if (maxStatementsPerConnection <= 0 || broken || closed) {
+                closeStatement(statement);
+                return;
+            }
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                closeStatement(statement);
+                return;
+            }
+            PreparedStatement previous = statements.put(key, statement);
+            if (previous != null) {
+                closeStatement(previous);
+            } else {
+                cachedStatements.incrementAndGet();
+            }
+        }
+
+        private void closeStatement(PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * 关闭缓存的PreparedStatement和物理连接
+         */
+        void closePhysical() {
+            Iterator<PreparedStatement> iterator = statements.values().iterator();
+            while (iterator.hasNext()) {
+                PreparedStatement statement = iterator.next();
+                iterator.remove();
+                cachedStatements.decrementAndGet();
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            try {
+                raw.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * 调用物理连接或PreparedStatement上的方法，连接断开的异常会把连接标记为不可用
+         */
+        Object invokeRaw(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (isFatal(cause)) {
+                    broken = true;
+                }
+                throw cause;
+            }
+        }
+    }
+
+    /**
+     * 借出的连接代理，close()时归还连接池而不是关闭物理连接
+     */
+    private final class ConnectionHandler implements InvocationHandler {
+        private final PooledConnection entry;
+        private boolean closed;
+
+        ConnectionHandler(PooledConnection entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || entry.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + entry.raw + "]";
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("连接已经归还连接池");
+            }
+            switch (name) {
+                case "prepareStatement":
+                    if (args.length == 1 || (args.length == 3 && args[1] instanceof Integer && args[2] instanceof Integer)) {
+                        String key = args.length == 1 ? (String) args[0] : args[0] + "#" + args[1] + "#" + args[2];
+                        PreparedStatement statement = entry.prepare(key, method, args);
+                        return Proxy.newProxyInstance(NativeConnectionPool.class.getClassLoader(),
+                                new Class<?>[]{PreparedStatement.class}, new StatementHandler(this, (Connection) proxy, key, statement));
+                    }
+                    break;
+                case "setAutoCommit":
+                    entry.autoCommitChanged = true;
+                    break;
+                case "setReadOnly":
+                    entry.readOnlyChanged = true;
+                    break;
+                case "setTransactionIsolation":
+                    entry.isolationChanged = true;
+                    break;
+                default:
+                    break;
+            }
+            return entry.invokeRaw(entry.raw, method, args);
+        }
+    }
+
+    /**
+     * 可缓存的PreparedStatement代理，close()时放回所属连接的缓存
+     */
+    private final class StatementHandler implements InvocationHandler {
+        private final ConnectionHandler connectionHandler;
+        private final Connection connectionProxy;
+        private final String key;
+        private final PreparedStatement statement;
+        private boolean closed;
+        /**
+         * 调用方第一次修改前的fetchSize、maxRows和queryTimeout，没有修改时为null，放回缓存前恢复
+         */
+        private Integer originalFetchSize;
+        private Integer originalMaxRows;
+        private Integer originalQueryTimeout;
+        /**
+         * 修改过其他不会恢复的设置，关闭时不放回缓存
+         */
+        private boolean modified;
+
+        StatementHandler(ConnectionHandler connectionHandler, Connection connectionProxy, String key,
+                         PreparedStatement statement) {
+            this.connectionHandler = connectionHandler;
+            this.connectionProxy = connectionProxy;
+            this.key = key;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        /**连接已经归还后才关闭或者设置无法恢复的PreparedStatement不能再放回缓存**/
+                        if (connectionHandler.closed || !restoreSettings()) {
+                            statement.close();
+                        } else {
+                            connectionHandler.entry.returnStatement(key, statement);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return connectionProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return statement.toString();
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("PreparedStatement已经关闭");
+            }
+            switch (method.getName()) {
+                case "setFetchSize":
+                    if (originalFetchSize == null) {
+                        originalFetchSize = statement.getFetchSize();
+                    }
+                    break;
+                case "setMaxRows":
+                    if (originalMaxRows == null) {
+                        originalMaxRows = statement.getMaxRows();
+                    }
+                    break;
+                case "setQueryTimeout":
+                    if (originalQueryTimeout == null) {
+                        originalQueryTimeout = statement.getQueryTimeout();
+                    }
+                    break;
+                case "setLargeMaxRows":
+                case "setMaxFieldSize":
+                case "setFetchDirection":
+                case "setEscapeProcessing":
+                case "setCursorName":
+                case "setPoolable":
+                    modified = true;
+                    break;
+                default:
+                    break;
+            }
+            return connectionHandler.entry.invokeRaw(statement, method, args);
+        }
+
+        /**
+         * 恢复调用方修改过的设置，下一个从缓存中取出的调用方看到的是默认的设置
+         *
+         * @return 是否可以放回缓存
+         */
+        private boolean restoreSettings() {
+            if (modified) {
+                return false;
+            }
+            try {
+                if (originalFetchSize != null) {
+                    statement.setFetchSize(originalFetchSize);
+                }
+                if (originalMaxRows != null) {
+                    statement.setMaxRows(originalMaxRows);
+                }
+                if (originalQueryTimeout != null) {
+                    statement.setQueryTimeout(originalQueryTimeout);
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+    }
+}
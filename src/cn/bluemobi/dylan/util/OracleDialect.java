@@ -0,0 +1,83 @@
+package cn.bluemobi.dylan.util;
+
+/**
+ * Oracle的方言：ROWNUM分页(兼容12c之前没有FETCH FIRST的版本)，INSERT ALL多行插入，MERGE INTO ... USING DUAL，
+ * 驱动默认每次只拉取10行，普通查询和流式读取都调大fetchSize
+ */
+public class OracleDialect extends Dialect {
+
+    /**
+     * INSERT ALL行数过多时解析很慢，每条sql最多的行数
+     */
+    static final int MAX_INSERT_ALL_ROWS = 500;
+    /**
+     * 有offset时分页查询用来过滤的行号列，总是结果集的最后一列，读取结果时由{@link ColumnIndex}去掉
+     */
+    static final String ROW_NUMBER_COLUMN = "DBUTIL_RN_";
+
+    @Override
+    public String getName() {
+        return "oracle";
+    }
+
+    /**
+     * 有offset时外层查询的最后会多出行号列{@link #ROW_NUMBER_COLUMN}，读取结果时去掉，返回的列与原查询相同
+     */
+    @Override
+    public String paginate(String sql, long offset, long rowCount) {
+        if (offset <= 0) {
+            return "SELECT * FROM (" + sql + ") WHERE ROWNUM <= " + rowCount;
+        }
+        return "SELECT * FROM (SELECT q_.*, ROWNUM " + ROW_NUMBER_COLUMN + " FROM (" + sql + ") q_ WHERE ROWNUM <= "
+                + (offset + rowCount) + ") WHERE " + ROW_NUMBER_COLUMN + " > " + offset;
+    }
+
+    @Override
+    public String multiRowInsertSql(String tableName, String[] columns, int rows) {
+        String columnSql = columnList(columns, "");
+        StringBuilder unknownMarkSql = new StringBuilder("(");
+        for (int i = 0; i < columns.length; i++) {
+            unknownMarkSql.append(i == 0 ? "?" : ",?");
+        }
+        unknownMarkSql.append(')');
+        String table = identifier(tableName);
+        StringBuilder sql = new StringBuilder(rows * (table.length() + columnSql.length() + unknownMarkSql.length() + 16) + 32);
+        sql.append("INSERT ALL");
+        for (int i = 0; i < rows; i++) {
+            sql.append(" INTO ").append(table).append(" (").append(columnSql).append(") VALUES ").append(unknownMarkSql);
+        }
+        sql.append(" SELECT 1 FROM DUAL");
+        return sql.toString();
+    }
+
+    @Override
+    public String upsertSql(String tableName, String[] columns, String[] keyColumns) {
+        StringBuilder sql = new StringBuilder("MERGE INTO ").append(identifier(tableName)).append(" t USING (SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "? " : ", ? ").append(identifier(columns[i]));
+        }
+        sql.append(" FROM DUAL) s");
+        appendMerge(sql, columns, keyColumns);
+        return sql.toString();
+    }
+
+    @Override
+    public int getStreamingFetchSize() {
+        return QueryCursor.DEFAULT_FETCH_SIZE;
+    }
+
+    @Override
+    public int getDefaultFetchSize() {
+        return 100;
+    }
+
+    @Override
+    public int getMaxBindParameters() {
+        return 65535;
+    }
+
+    @Override
+    public int getMaxMultiRowInsertRows() {
+        return MAX_INSERT_ALL_ROWS;
+    }
+}
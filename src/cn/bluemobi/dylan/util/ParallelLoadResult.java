@@ -0,0 +1,97 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 并行批量插入的结果：成功插入的行数和失败的分区
+ */
+public class ParallelLoadResult {
+
+    /**
+     * 插入失败并已回滚的分区
+     */
+    public static class PartitionFailure {
+        private final int partition;
+        private final long firstRow;
+        private final int rowCount;
+        private final SQLException error;
+
+        PartitionFailure(int partition, long firstRow, int rowCount, SQLException error) {
+            this.partition = partition;
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+            this.error = error;
+        }
+
+        /**
+         * @return 分区序号，从0开始
+         */
+        public int getPartition() {
+            return partition;
+        }
+
+        /**
+         * @return 分区第一行在输入中的位置，从0开始
+         */
+        public long getFirstRow() {
+            return firstRow;
+        }
+
+        /**
+         * @return 分区的行数
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        public SQLException getError() {
+            return error;
+        }
+    }
+
+    private final long insertedRowCount;
+    private final int partitionCount;
+    private final List<PartitionFailure> failures;
+    private final long elapsedMillis;
+
+    ParallelLoadResult(long insertedRowCount, int partitionCount, List<PartitionFailure> failures, long elapsedMillis) {
+        this.insertedRowCount = insertedRowCount;
+        this.partitionCount = partitionCount;
+        this.failures = Collections.unmodifiableList(failures);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return 成功提交的行数
+     */
+    public long getInsertedRowCount() {
+        return insertedRowCount;
+    }
+
+    /**
+     * @return 分区总数
+     */
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * @return 失败的分区，按分区序号排序
+     */
+    public List<PartitionFailure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return 是否所有分区都插入成功
+     */
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+}
@@ -0,0 +1,129 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并行批量插入：把输入按partitionSize切分成分区，由固定大小的线程池在多个连接上同时插入，
+ * 每个分区单独提交，失败时只回滚该分区，commitInterval在分区内不生效。
+ * 同时读入内存的分区最多为parallelism的2倍，输入读取快于插入时读取线程会等待。
+ * 分片表的一个分区会分散到多个分片上分别提交，无法整体回滚，所以不支持分片表，
+ * 需要时按分片拆分数据后通过{@link DataSourceContext}在每个分片上分别调用
+ */
+final class ParallelLoader {
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private ParallelLoader() {
+    }
+
+    /**
+     * 并行插入
+     *
+     * @param tableName 要插入的数据库的表名
+     * @param datas     插入的数据，所有行的列与第一行相同
+     * @param options   批量插入的参数
+     * @return 插入的结果
+     * @throws SQLException 当前线程在事务中或表是分片表时抛出，分区的失败记录在结果中
+     */
+    static ParallelLoadResult load(final String tableName, Iterator<Map<String, Object>> datas,
+                                   BatchOptions options) throws SQLException {
+        if (TransactionManager.isActive()) {
+            throw new SQLException("并行插入使用多个连接，不能在事务中执行");
+        }
+        if (ShardRouter.shardOf(tableName) != null) {
+            throw new SQLException("分片表" + tableName + "不支持并行插入，请按分片拆分数据后在每个分片上分别插入");
+        }
+        int maxPoolSize = DBConnectionPool.current().getMaxPoolSize();
+        int parallelism = options.getParallelism() == 0 ? maxPoolSize : options.getParallelism();
+        if (maxPoolSize > 0) {
+            parallelism = Math.min(parallelism, maxPoolSize);
+        }
+        parallelism = Math.max(parallelism, 1);
+        /**进度按所有分区汇总后回调，分区内部不回调；每个分区只在最后提交一次，失败时整个分区回滚**/
+        final BatchProgressListener listener = options.getProgressListener();
+        final BatchOptions partitionOptions = options.copy().progressListener(null).commitInterval(0);
+        final long start = System.currentTimeMillis();
+        /**分区在调用线程指定的数据源上插入**/
+        final String dataSource = DataSourceContext.current();
+        final AtomicLong insertedRowCount = new AtomicLong();
+        final List<ParallelLoadResult.PartitionFailure> failures =
+                Collections.synchronizedList(new ArrayList<ParallelLoadResult.PartitionFailure>());
+        final Semaphore permits = new Semaphore(parallelism * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DBUtil-loader-" + THREAD_NUMBER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        int partitionCount = 0;
+        long rowNumber = 0;
+        try {
+            while (datas.hasNext()) {
+                final List<Map<String, Object>> partition = new ArrayList<>(options.getPartitionSize());
+                while (partition.size() < options.getPartitionSize() && datas.hasNext()) {
+                    partition.add(datas.next());
+                }
+                final int index = partitionCount++;
+                final long firstRow = rowNumber;
+                rowNumber += partition.size();
+                permits.acquire();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            long count = DataSourceContext.execute(dataSource,
+                                    () -> DBUtil.insertAll(tableName, partition.iterator(), partitionOptions));
+                            long total = insertedRowCount.addAndGet(count);
+                            if (listener != null) {
+                                long elapsed = System.currentTimeMillis() - start;
+                                synchronized (listener) {
+                                    listener.onProgress(total, elapsed,
+                                            elapsed == 0 ? total * 1000D : total * 1000D / elapsed);
+                                }
+                            }
+                        } catch (SQLException e) {
+                            failures.add(new ParallelLoadResult.PartitionFailure(index, firstRow, partition.size(), e));
+                        } catch (RuntimeException e) {
+                            failures.add(new ParallelLoadResult.PartitionFailure(index, firstRow, partition.size(),
+                                    new SQLException(e)));
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new SQLException("并行插入被中断", e);
+        } finally {
+            executor.shutdown();
+        }
+        List<ParallelLoadResult.PartitionFailure> sorted = new ArrayList<>(failures);
+        Collections.sort(sorted, new Comparator<ParallelLoadResult.PartitionFailure>() {
+            @Override
+            public int compare(ParallelLoadResult.PartitionFailure o1, ParallelLoadResult.PartitionFailure o2) {
+                return Integer.compare(o1.getPartition(), o2.getPartition());
+            }
+        });
+        return new ParallelLoadResult(insertedRowCount.get(), partitionCount, sorted,
+                System.currentTimeMillis() - start);
+    }
+}
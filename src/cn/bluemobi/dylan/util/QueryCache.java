@@ -0,0 +1,330 @@
+package cn.bluemobi.dylan.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 查询结果缓存，key为sql+绑定参数+结果类型，按LRU淘汰，条数和总行数都有上限，每个查询单独指定过期时间。
+ * 每张表有一个版本号，DBUtil的增删改成功后递增对应表的版本号，
+ * 缓存的结果记录查询前各表的版本号，读取时版本号变化的结果视为失效，
+ * 因此查询执行期间发生的修改也不会把旧数据留在缓存中。
+ * 缓存只在调用带ttl参数的查询方法时使用，事务中的查询不使用缓存
+ */
+public final class QueryCache {
+
+    /**
+     * 默认最多缓存的查询条数
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    /**
+     * 默认最多缓存的总行数
+     */
+    public static final long DEFAULT_MAX_ROWS = 100000;
+
+    /**
+     * 从增删改的sql中解析表名
+     */
+    private static final Pattern sTablePattern = Pattern.compile(
+            "^\\s*(?:INSERT\\s+INTO|REPLACE\\s+INTO|MERGE\\s+INTO|UPDATE|DELETE\\s+FROM|DELETE|TRUNCATE\\s+TABLE)\\s+([\\w.$`\"]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Map<Key, Entry> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * 表名(小写)到版本号
+     */
+    private static final ConcurrentHashMap<String, AtomicLong> TABLE_VERSIONS = new ConcurrentHashMap<>();
+    /**
+     * 无法确定表名的修改使所有缓存失效
+     */
+    private static final AtomicLong GLOBAL_VERSION = new AtomicLong();
+    private static final AtomicLong HIT_COUNT = new AtomicLong();
+    private static final AtomicLong MISS_COUNT = new AtomicLong();
+    private static volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private static volatile long maxRows = DEFAULT_MAX_ROWS;
+    /**
+     * 当前缓存的总行数，只在持有CACHE锁时修改
+     */
+    private static long rowCount;
+
+    private QueryCache() {
+    }
+
+    /**
+     * 获取缓存的查询结果
+     *
+     * @param key 缓存的key
+     * @return 只读的查询结果，没有或已失效时返回null
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<T> get(Key key) {
+        Entry entry;
+        synchronized (CACHE) {
+            entry = CACHE.get(key);
+            if (entry != null && (entry.expireAt < System.currentTimeMillis() || isStale(entry.tables, entry.versions))) {
+                remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            MISS_COUNT.incrementAndGet();
+            return null;
+        }
+        HIT_COUNT.incrementAndGet();
+        return (List<T>) entry.rows;
+    }
+
+    /**
+     * 在执行查询前获取各表当前的版本号
+     *
+     * @param tables 查询涉及的表
+     * @return 版本号，第0个是全局版本号
+     */
+    static long[] versions(String[] tables) {
+        long[] versions = new long[tables.length + 1];
+        versions[0] = GLOBAL_VERSION.get();
+        for (int i = 0; i < tables.length; i++) {
+            versions[i + 1] = versionOf(tables[i]).get();
+        }
+        return versions;
+    }
+
+    /**
+     * 缓存查询结果，查询期间表被修改过或结果超过总行数上限时不缓存
+     *
+     * @param key       缓存的key
+     * @param rows      查询结果
+     * @param tables    查询涉及的表
+     * @param versions  查询前各表的版本号
+     * @param ttlMillis 过期时间，毫秒
+     * @return 只读的查询结果
+     */
+    static <T> List<T> put(Key key, List<T> rows, String[] tables, long[] versions, long ttlMillis) {
+        List<T> readOnly = Collections.unmodifiableList(rows);
+        if (maxEntries <= 0 || rows.size() > maxRows || isStale(tables, versions)) {
+            return readOnly;
+        }
+        Entry entry = new Entry(readOnly, tables, versions, System.currentTimeMillis() + ttlMillis);
+        synchronized (CACHE) {
+            remove(key);
+            CACHE.put(key, entry);
+            rowCount += rows.size();
+            /**按最近最少使用的顺序淘汰**/
+            Iterator<Entry> iterator = CACHE.values().iterator();
+            while ((CACHE.size() > maxEntries || rowCount > maxRows) && iterator.hasNext()) {
+                rowCount -= iterator.next().rows.size();
+                iterator.remove();
+            }
+        }
+        return readOnly;
+    }
+
+    /**
+     * 删除一条缓存，调用时必须持有CACHE锁
+     */
+    private static void remove(Key key) {
+        Entry old = CACHE.remove(key);
+        if (old != null) {
+            rowCount -= old.rows.size();
+        }
+    }
+
+    private static boolean isStale(String[] tables, long[] versions) {
+        if (versions[0] != GLOBAL_VERSION.get()) {
+            return true;
+        }
+        for (int i = 0; i < tables.length; i++) {
+            if (versions[i + 1] != versionOf(tables[i]).get()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static AtomicLong versionOf(String table) {
+        String name = table.toLowerCase();
+        AtomicLong version = TABLE_VERSIONS.get(name);
+        if (version == null) {
+            AtomicLong created = new AtomicLong();
+            version = TABLE_VERSIONS.putIfAbsent(name, created);
+            if (version == null) {
+                version = created;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * 使某张表相关的缓存失效，DBUtil的增删改会自动调用，事务中的修改在事务提交后调用，
+     * 通过其他途径修改数据后需要手动调用
+     *
+     * @param table 表名，为null时使所有缓存失效
+     */
+    public static void invalidate(String table) {
+        if (table == null) {
+            GLOBAL_VERSION.incrementAndGet();
+        } else {
+            versionOf(table).incrementAndGet();
+        }
+    }
+
+    /**
+     * 从增删改的sql中解析表名
+     *
+     * @param sql 增删改的sql
+     * @return 表名，无法解析时返回null
+     */
+    static String tableOf(String sql) {
+        Matcher matcher = sTablePattern.matcher(sql);
+        if (!matcher.find()) {
+            return null;
+        }
+        String table = matcher.group(1).replace("`", "").replace("\"", "");
+        int dot = table.lastIndexOf('.');
+        return dot >= 0 ? table.substring(dot + 1) : table;
+    }
+
+    /**
+     * 设置最多缓存的查询条数，为0时关闭缓存
+     *
+     * @param maxEntries 查询条数
+     */
+    public static void setMaxEntries(int maxEntries) {
+        QueryCache.maxEntries = maxEntries;
+        if (maxEntries <= 0) {
+            clear();
+        }
+    }
+
+    public static int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * 设置最多缓存的总行数，超过时淘汰最近最少使用的查询
+     *
+     * @param maxRows 总行数
+     */
+    public static void setMaxRows(long maxRows) {
+        QueryCache.maxRows = maxRows;
+    }
+
+    public static long getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * @return 当前缓存的查询条数
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * @return 当前缓存的总行数
+     */
+    public static long getRowCount() {
+        synchronized (CACHE) {
+            return rowCount;
+        }
+    }
+
+    public static long getHitCount() {
+        return HIT_COUNT.get();
+    }
+
+    public static long getMissCount() {
+        return MISS_COUNT.get();
+    }
+
+    /**
+     * @return 命中率，没有访问时为0
+     */
+    public static double getHitRate() {
+        long hit = HIT_COUNT.get();
+        long total = hit + MISS_COUNT.get();
+        return total == 0 ? 0D : (double) hit / total;
+    }
+
+    /**
+     * 清空缓存和统计
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            rowCount = 0;
+        }
+        HIT_COUNT.set(0);
+        MISS_COUNT.set(0);
+    }
+
+    /**
+     * 缓存的查询结果
+     */
+    private static final class Entry {
+        final List<?> rows;
+        final String[] tables;
+        final long[] versions;
+        final long expireAt;
+
+        Entry(List<?> rows, String[] tables, long[] versions, long expireAt) {
+            this.rows = rows;
+            this.tables = tables;
+            this.versions = versions;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 缓存的key：数据源+sql+绑定参数+结果类型
+     */
+    static final class Key {
+        private final String dataSource;
+        private final String sql;
+        private final Object[] bindArgs;
+        private final Class<?> type;
+        private final int hash;
+
+        Key(String dataSource, String sql, Object[] bindArgs, Class<?> type) {
+            this.dataSource = dataSource;
+            this.sql = sql;
+            this.bindArgs = bindArgs == null ? null : bindArgs.clone();
+            this.type = type;
+            int h = dataSource == null ? 0 : dataSource.hashCode();
+            h = 31 * h + sql.hashCode();
+            h = 31 * h + Arrays.deepHashCode(this.bindArgs);
+            h = 31 * h + (type == null ? 0 : type.hashCode());
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash
+                    && type == other.type
+                    && (dataSource == null ? other.dataSource == null : dataSource.equals(other.dataSource))
+                    && sql.equals(other.sql)
+                    && Arrays.deepEquals(bindArgs, other.bindArgs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 流式查询游标，在遍历期间一直持有数据库连接和结果集，逐行从驱动中拉取数据，
+ * 遍历结束或调用{@link #close()}时释放所有资源，内存占用与结果集大小无关
+ */
+public class QueryCursor implements Iterator<Map<String, Object>>, AutoCloseable {
+
+    /**
+     * 非MySQL数据库流式读取时默认每次从服务端拉取的行数
+     */
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    private final Connection connection;
+    private final PreparedStatement preparedStatement;
+    private final ResultSet resultSet;
+    /**
+     * 打开游标前预编译语句的fetchSize，关闭前恢复，避免连接池缓存的语句带着流式读取的设置被普通查询复用
+     */
+    private final int originalFetchSize;
+    /**
+     * 连接是否属于事务，属于事务的连接由事务负责关闭
+     */
+    private final boolean transactional;
+    /**
+     * 结果集的列索引，只在打开游标时读取一次，所有行共享
+     */
+    private final ColumnIndex columnIndex;
+    /**
+     * 是否已经预读了下一行
+     */
+    private boolean hasPeeked;
+    /**
+     * 预读的结果
+     */
+    private boolean hasNextRow;
+    private int rowNumber;
+    private boolean closed;
+    /**
+     * 是否是MySQL的逐行读取，逐行读取时不能修改fetchSize
+     */
+    private boolean streaming;
+
+    private QueryCursor(Connection connection, PreparedStatement preparedStatement, ResultSet resultSet,
+                        int originalFetchSize) throws SQLException {
+        this.connection = connection;
+        this.preparedStatement = preparedStatement;
+        this.resultSet = resultSet;
+        this.originalFetchSize = originalFetchSize;
+        this.transactional = TransactionManager.isTransactional(connection);
+        /**获取结果集的数据结构对象**/
+        columnIndex = ColumnIndex.of(resultSet.getMetaData());
+    }
+
+    /**
+     * 打开一个流式查询游标
+     *
+     * @param sql      要执行的sql语句
+     * @param bindArgs 绑定的参数
+     * @return 查询游标，使用完毕后必须关闭
+     * @throws SQLException SQL执行异常
+     */
+    static QueryCursor open(String sql, Object[] bindArgs) throws SQLException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        int originalFetchSize = -1;
+        try {
+            /**获取数据库连接池中的连接，查询优先使用从库**/
+            connection = TransactionManager.getReadConnection();
+            /**只进只读的结果集，驱动才能逐行拉取数据**/
+            preparedStatement = DBConnectionPool.current().prepareStatement(connection, sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            /**MySQL驱动只有设置为Integer.MIN_VALUE时才会逐行读取，其他数据库按固定批次从服务端拉取**/
+            int fetchSize = DBConnectionPool.current().getDialect().getStreamingFetchSize();
+            originalFetchSize = preparedStatement.getFetchSize();
+            preparedStatement.setFetchSize(fetchSize);
+            if (bindArgs != null) {
+                /**设置sql占位符中的值**/
+                for (int i = 0; i < bindArgs.length; i++) {
+                    preparedStatement.setObject(i + 1, bindArgs[i]);
+                }
+            }
+            SqlTracer.sql(sql, bindArgs);
+            /**执行sql语句，获取结果集**/
+            resultSet = preparedStatement.executeQuery();
+            QueryCursor cursor = new QueryCursor(connection, preparedStatement, resultSet, originalFetchSize);
+            cursor.streaming = fetchSize == Integer.MIN_VALUE;
+            return cursor;
+        } catch (SQLException e) {
+            SqlTracer.error(sql, e);
+            closeQuietly(resultSet, preparedStatement, originalFetchSize,
+                    connection == null || TransactionManager.isTransactional(connection) ? null : connection);
+            throw e;
+        }
+    }
+
+    /**
+     * 修改下一次从服务端拉取的行数，MySQL逐行读取时忽略
+     *
+     * @param fetchSize 行数
+     */
+    void setFetchSize(int fetchSize) {
+        if (streaming || closed || fetchSize <= 0) {
+            return;
+        }
+        try {
+            resultSet.setFetchSize(fetchSize);
+        } catch (SQLException e) {
+            /**部分驱动不支持修改结果集的fetchSize，保持打开时的设置**/
+        }
+    }
+
+    /**
+     * 是否还有下一行，读到末尾时自动关闭游标
+     *
+     * @return 是否还有下一行
+     */
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!hasPeeked) {
+            try {
+                hasNextRow = resultSet.next();
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException(e);
+            }
+            hasPeeked = true;
+            if (!hasNextRow) {
+                close();
+            }
+        }
+        return hasNextRow;
+    }
+
+    /**
+     * 读取下一行
+     *
+     * @return key为列名和value为列对应的值的Map对象
+     */
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasPeeked = false;
+        try {
+            return readRow();
+        } catch (SQLException e) {
+            close();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 以回调的方式遍历剩余的所有行，遍历结束后关闭游标
+     *
+     * @param callback 行回调
+     * @return 遍历的行数
+     * @throws SQLException SQL执行异常
+     */
+    public int forEachRow(RowCallback callback) throws SQLException {
+        try {
+            /**hasNext()已经预读的一行要先处理**/
+            if (hasPeeked && hasNextRow) {
+                hasPeeked = false;
+                callback.handleRow(readRow(), rowNumber);
+            }
+            while (!closed && resultSet.next()) {
+                callback.handleRow(readRow(), rowNumber);
+            }
+            return rowNumber;
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * 读取当前行
+     */
+    private Map<String, Object> readRow() throws SQLException {
+        RowMap rowMap = columnIndex.readRow(resultSet);
+        rowNumber++;
+        return rowMap;
+    }
+
+    /**
+     * 关闭结果集、预编译语句，并将连接归还连接池
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeQuietly(resultSet, preparedStatement, originalFetchSize, transactional ? null : connection);
+    }
+
+    /**
+     * 关闭资源，connection为null时不关闭连接，originalFetchSize小于0时不恢复fetchSize
+     */
+    private static void closeQuietly(ResultSet resultSet, PreparedStatement preparedStatement, int originalFetchSize,
+                                     Connection connection) {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        try {
+            /**c3p0放回缓存时不会重置fetchSize，结果集关闭后才能修改**/
+            if (preparedStatement != null && originalFetchSize >= 0) {
+                preparedStatement.setFetchSize(originalFetchSize);
+            }
+        } catch (SQLException e) {
+            /**恢复失败时仍然关闭语句**/
+        }
+        try {
+            if (preparedStatement != null) {
+                preparedStatement.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package cn.bluemobi.dylan.util;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按订阅者的请求逐行发布查询结果的Publisher。
+ * 每个订阅者在第一次request时打开一个{@link QueryCursor}，只在有请求时从结果集读取，
+ * 读取的行数不超过请求的行数，请求的行数同时作为下一次从服务端拉取的fetchSize；
+ * 读取完毕、出错或取消时关闭游标并归还连接。
+ * 查询在执行器的线程上执行，不参与订阅线程的事务；
+ * 每个订阅从第一次request到结束都占用数据源在{@link AsyncDBUtil}中的一个名额，与异步调用一起受连接数和maxPending的限制。
+ * java.util.concurrent.Flow需要Java 9，只有本类依赖它，DBUtil中的其他方法仍然可以在Java 8上使用
+ */
+public class QueryPublisher implements Flow.Publisher<Map<String, Object>> {
+
+    /**
+     * 根据请求的行数设置fetchSize时的上限
+     */
+    public static final int MAX_FETCH_SIZE = 10000;
+
+    private final String sql;
+    private final Object[] bindArgs;
+    private final Executor executor;
+    /**
+     * 创建时当前线程指定的数据源
+     */
+    private final String dataSource;
+
+    /**
+     * 发布查询结果，在{@link AsyncDBUtil}的执行器上读取
+     *
+     * @param sql      sql语句
+     * @param bindArgs 绑定参数
+     * @return 按请求发布行的Publisher
+     */
+    public static QueryPublisher publishQuery(String sql, Object[] bindArgs) {
+        return new QueryPublisher(sql, bindArgs, AsyncDBUtil.executor());
+    }
+
+    /**
+     * 发布查询结果
+     *
+     * @param sql      sql语句
+     * @param bindArgs 绑定参数
+     * @param executor 读取结果集的执行器
+     * @return 按请求发布行的Publisher
+     */
+    public static QueryPublisher publishQuery(String sql, Object[] bindArgs, Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        return new QueryPublisher(sql, bindArgs, executor);
+    }
+
+    QueryPublisher(String sql, Object[] bindArgs, Executor executor) {
+        this.dataSource = DataSourceContext.current();
+        this.sql = sql;
+        this.bindArgs = bindArgs;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Map<String, Object>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        subscriber.onSubscribe(new RowSubscription(subscriber));
+    }
+
+    /**
+     * 一个订阅者的订阅，所有对游标的操作都在drain中串行执行
+     */
+    private final class RowSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Map<String, Object>> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private QueryCursor cursor;
+        private boolean done;
+        /**
+         * 归还AsyncDBUtil名额的操作，还没有申请时为null
+         */
+        private Runnable permit;
+        private volatile boolean permitted;
+
+        RowSubscription(Flow.Subscriber<? super Map<String, Object>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("request must be positive: " + n);
+            } else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!requested.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * 发送已请求的行
+         */
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (invalidRequest != null) {
+                finish();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            long demand = requested.get();
+            if (demand == 0) {
+                return;
+            }
+            try {
+                if (cursor == null) {
+                    /**先取得名额再打开游标，没有名额时排队，取得后重新drain**/
+                    if (permit == null) {
+                        permit = AsyncDBUtil.acquire(dataSource, () -> {
+                            permitted = true;
+                            schedule();
+                        });
+                    }
+                    if (!permitted) {
+                        return;
+                    }
+                    cursor = DataSourceContext.execute(dataSource, () -> QueryCursor.open(sql, bindArgs));
+                }
+                cursor.setFetchSize((int) Math.min(demand, MAX_FETCH_SIZE));
+                long emitted = 0;
+                while (emitted != demand) {
+                    if (cancelled) {
+                        finish();
+                        return;
+                    }
+                    if (!cursor.hasNext()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    subscriber.onNext(cursor.next());
+                    emitted++;
+                }
+                requested.addAndGet(-emitted);
+            } catch (Throwable e) {
+                finish();
+                SqlTracer.error(sql, e);
+                subscriber.onError(e);
+            }
+        }
+
+        /**
+         * 关闭游标、归还连接和名额，之后不再发送任何信号
+         */
+        private void finish() {
+            done = true;
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (permit != null) {
+                permit.run();
+            }
+        }
+    }
+}
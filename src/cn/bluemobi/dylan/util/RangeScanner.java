@@ -0,0 +1,171 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按主键范围并行扫描：把[MIN(key), MAX(key)]切分成parallelism的4倍段，
+ * 由固定大小的线程池在多个连接上同时流式读取，键值分布不均匀时先完成的线程继续读取剩下的段。
+ * 所有段使用同一条sql，只是绑定的范围不同，可以命中PreparedStatement缓存
+ */
+final class RangeScanner {
+
+    /**
+     * 每个线程平均分到的段数
+     */
+    private static final int RANGES_PER_THREAD = 4;
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private RangeScanner() {
+    }
+
+    /**
+     * 并行扫描
+     *
+     * @param tableName    表名
+     * @param whereColumns 等值条件的列名
+     * @param whereArgs    等值条件的值，没有条件时为null
+     * @param keyColumn    切分范围的键，必须是整数类型
+     * @param parallelism  并行的线程数，为0时使用连接池的最大连接数
+     * @param callback     行回调，会在多个线程中同时调用
+     * @return 读取的行数
+     * @throws SQLException SQL执行异常，或当前线程在事务中
+     */
+    static long scan(String tableName, String[] whereColumns, Object[] whereArgs, String keyColumn,
+                     int parallelism, final RowCallback callback) throws SQLException {
+        if (TransactionManager.isActive()) {
+            throw new SQLException("并行扫描使用多个连接，不能在事务中执行");
+        }
+        StringBuilder where = new StringBuilder();
+        for (String whereColumn : whereColumns) {
+            where.append(whereColumn).append(" = ? AND ");
+        }
+        /**查询键的范围**/
+        String boundsSql = "SELECT MIN(" + keyColumn + ") AS MIN_KEY, MAX(" + keyColumn + ") AS MAX_KEY FROM "
+                + tableName + (whereColumns.length == 0 ? "" : " WHERE " + where.substring(0, where.length() - 5));
+        List<Map<String, Object>> bounds = DBUtil.executeQuery(boundsSql, whereArgs);
+        Object min = bounds.isEmpty() ? null : bounds.get(0).get("MIN_KEY");
+        Object max = bounds.isEmpty() ? null : bounds.get(0).get("MAX_KEY");
+        if (min == null || max == null) {
+            return 0L;
+        }
+        if (!(min instanceof Number) || !(max instanceof Number)) {
+            throw new SQLException("并行扫描只支持整数类型的键：" + keyColumn);
+        }
+        long lower = ((Number) min).longValue();
+        long upper = ((Number) max).longValue();
+
+        int maxPoolSize = DBConnectionPool.current().getMaxPoolSize();
+        if (parallelism == 0) {
+            parallelism = maxPoolSize;
+        } else if (maxPoolSize > 0) {
+            parallelism = Math.min(parallelism, maxPoolSize);
+        }
+        parallelism = Math.max(parallelism, 1);
+        /**切分成多段，范围小于段数或相减溢出时不切分**/
+        long span = upper - lower;
+        long rangeCount = (long) parallelism * RANGES_PER_THREAD;
+        if (span < 0) {
+            rangeCount = 1;
+        } else if (span < rangeCount) {
+            rangeCount = span + 1;
+        }
+        long step = span < 0 ? 0 : span / rangeCount + 1;
+
+        final String sql = "SELECT * FROM " + tableName + " WHERE " + where
+                + keyColumn + " >= ? AND " + keyColumn + " <= ?";
+        /**所有段在调用线程指定的数据源上读取**/
+        final String dataSource = DataSourceContext.current();
+        final AtomicBoolean failed = new AtomicBoolean();
+        /**第一个失败的段的异常，其他段被停止时的异常忽略**/
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final AtomicInteger rowNumber = new AtomicInteger();
+        final AtomicLong rowCount = new AtomicLong();
+        /**其他段失败时让当前段的读取尽快结束**/
+        final RowCallback rangeCallback = new RowCallback() {
+            @Override
+            public void handleRow(Map<String, Object> row, int number) throws SQLException {
+                if (failed.get()) {
+                    throw new SQLException("其他范围的扫描失败，停止扫描");
+                }
+                callback.handleRow(row, rowNumber.incrementAndGet());
+                rowCount.incrementAndGet();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool((int) Math.min(parallelism, rangeCount),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "DBUtil-scanner-" + THREAD_NUMBER.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        List<Future<Integer>> futures = new ArrayList<>();
+        try {
+            long from = lower;
+            for (long i = 0; i < rangeCount; i++) {
+                long to = i == rangeCount - 1 ? upper : from + step - 1;
+                final Object[] args = new Object[whereColumns.length + 2];
+                if (whereArgs != null) {
+                    System.arraycopy(whereArgs, 0, args, 0, whereArgs.length);
+                }
+                args[args.length - 2] = from;
+                args[args.length - 1] = to;
+                from = to + 1;
+                futures.add(executor.submit(() -> {
+                    try {
+                        return DataSourceContext.execute(dataSource,
+                                () -> DBUtil.executeQuery(sql, args, rangeCallback));
+                    } catch (SQLException | RuntimeException e) {
+                        if (failed.compareAndSet(false, true)) {
+                            error.set(e);
+                        }
+                        throw e;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    /**还没有开始的段不再执行**/
+                    for (Future<Integer> other : futures) {
+                        other.cancel(false);
+                    }
+                } catch (CancellationException e) {
+                    /**失败后取消的段**/
+                }
+            }
+            /**取消时正在读取的段要等回调停止后才能返回**/
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            failed.set(true);
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new SQLException("并行扫描被中断", e);
+        } finally {
+            executor.shutdown();
+        }
+        Exception cause = error.get();
+        if (cause != null) {
+            throw cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+        }
+        return rowCount.get();
+    }
+}
@@ -0,0 +1,73 @@
+package cn.bluemobi.dylan.util;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按数值范围分片，例如emp_id小于10000的在shard0，小于20000的在shard1，其余在shard2：
+ * new RangeShardStrategy().range(10000, "shard0").range(20000, "shard1").otherwise("shard2")
+ */
+public class RangeShardStrategy implements ShardStrategy {
+
+    private final List<BigDecimal> upperBounds = new ArrayList<>();
+    private final List<String> rangeDataSources = new ArrayList<>();
+    private final List<String> dataSources = new ArrayList<>();
+    private String otherwise;
+
+    /**
+     * 添加一个范围，必须按上限从小到大添加
+     *
+     * @param upperBound 上限，不包含
+     * @param dataSource 数据源的名称
+     * @return this
+     */
+    public RangeShardStrategy range(Number upperBound, String dataSource) {
+        BigDecimal bound = new BigDecimal(upperBound.toString());
+        if (!upperBounds.isEmpty() && bound.compareTo(upperBounds.get(upperBounds.size() - 1)) <= 0) {
+            throw new IllegalArgumentException("upperBound must be increasing: " + upperBound);
+        }
+        upperBounds.add(bound);
+        rangeDataSources.add(dataSource);
+        addDataSource(dataSource);
+        return this;
+    }
+
+    /**
+     * 超过所有上限的值使用的数据源
+     *
+     * @param dataSource 数据源的名称
+     * @return this
+     */
+    public RangeShardStrategy otherwise(String dataSource) {
+        this.otherwise = dataSource;
+        addDataSource(dataSource);
+        return this;
+    }
+
+    private void addDataSource(String dataSource) {
+        if (!dataSources.contains(dataSource)) {
+            dataSources.add(dataSource);
+        }
+    }
+
+    @Override
+    public String route(Object key) {
+        BigDecimal value = new BigDecimal(key.toString().trim());
+        for (int i = 0; i < upperBounds.size(); i++) {
+            if (value.compareTo(upperBounds.get(i)) < 0) {
+                return rangeDataSources.get(i);
+            }
+        }
+        if (otherwise == null) {
+            throw new IllegalArgumentException("分片键" + key + "超出了所有范围");
+        }
+        return otherwise;
+    }
+
+    @Override
+    public List<String> getDataSources() {
+        return Collections.unmodifiableList(dataSources);
+    }
+}
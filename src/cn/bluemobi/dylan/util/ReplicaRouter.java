@@ -0,0 +1,228 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 只读从库的路由：按轮询或最少活动连接选择从库，
+ * 从库获取连接失败时在retryInterval内不再使用，所有从库都不可用时返回null，由调用方回退到主库。
+ * 通过属性文件配置：
+ * jdbc.replicas=从库名称列表，逗号分隔；
+ * jdbc.&lt;名称&gt;.url、jdbc.&lt;名称&gt;.username、jdbc.&lt;名称&gt;.password，没有配置的属性与主库相同；
+ * jdbc.replica.loadBalance=roundRobin(默认)或leastActive；
+ * jdbc.replica.retryInterval=不可用的从库多久之后重试，毫秒
+ */
+public class ReplicaRouter {
+
+    /**
+     * 负载均衡方式
+     */
+    public enum LoadBalance {
+        /**
+         * 轮询
+         */
+        ROUND_ROBIN,
+        /**
+         * 选择正在使用的连接最少的从库
+         */
+        LEAST_ACTIVE
+    }
+
+    /**
+     * 默认不可用的从库多久之后重试，毫秒
+     */
+    public static final long DEFAULT_RETRY_INTERVAL = 30000;
+
+    private final List<Replica> replicas;
+    private final LoadBalance loadBalance;
+    private final long retryInterval;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * 一个从库
+     */
+    private static final class Replica {
+        final String name;
+        final ConnectionProvider provider;
+        /**
+         * 不可用的截止时间，为0表示可用
+         */
+        final AtomicLong downUntil = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+
+        Replica(String name, ConnectionProvider provider) {
+            this.name = name;
+            this.provider = provider;
+        }
+
+        boolean isHealthy(long now) {
+            long until = downUntil.get();
+            return until == 0 || until <= now;
+        }
+    }
+
+    private ReplicaRouter(List<Replica> replicas, LoadBalance loadBalance, long retryInterval) {
+        this.replicas = replicas;
+        this.loadBalance = loadBalance;
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * 根据属性文件创建从库路由
+     *
+     * @param properties 属性文件中的配置
+     * @return 从库路由，没有配置jdbc.replicas时返回null
+     */
+    static ReplicaRouter create(Properties properties) {
+        String names = properties.getProperty("jdbc.replicas");
+        if (names == null || names.trim().isEmpty()) {
+            return null;
+        }
+        List<Replica> replicas = new ArrayList<>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            Properties replicaProperties = new Properties();
+            replicaProperties.putAll(properties);
+            for (String key : new String[]{"url", "username", "password", "driverClassName"}) {
+                String value = properties.getProperty("jdbc." + name + "." + key);
+                if (value != null) {
+                    replicaProperties.setProperty("jdbc." + key, value);
+                }
+            }
+            try {
+                replicas.add(new Replica(name, DBConnectionPool.createProvider(replicaProperties)));
+            } catch (RuntimeException e) {
+                /**从库启动时不可用不影响主库，查询回退到其他从库或主库**/
+                SqlTracer.error("创建从库" + name + "的连接池失败", e);
+            }
+        }
+        if (replicas.isEmpty()) {
+            return null;
+        }
+        LoadBalance loadBalance = "leastActive".equalsIgnoreCase(properties.getProperty("jdbc.replica.loadBalance", "").trim())
+                ? LoadBalance.LEAST_ACTIVE : LoadBalance.ROUND_ROBIN;
+        long retryInterval = Long.parseLong(properties.getProperty("jdbc.replica.retryInterval",
+                String.valueOf(DEFAULT_RETRY_INTERVAL)).trim());
+        return new ReplicaRouter(Collections.unmodifiableList(replicas), loadBalance, retryInterval);
+    }
+
+    /**
+     * 从可用的从库获取连接，获取失败的从库标记为不可用并尝试下一个
+     *
+     * @return 从库的连接，所有从库都不可用时返回null
+     */
+    Connection getConnection() {
+        int size = replicas.size();
+        for (int attempt = 0; attempt < size; attempt++) {
+            Replica replica = select(System.currentTimeMillis());
+            if (replica == null) {
+                return null;
+            }
+            try {
+                Connection connection = replica.provider.getConnection();
+                replica.downUntil.set(0);
+                return connection;
+            } catch (SQLException e) {
+                replica.failures.incrementAndGet();
+                replica.downUntil.set(System.currentTimeMillis() + retryInterval);
+                SqlTracer.error("从库" + replica.name + "获取连接失败，" + retryInterval + "毫秒内使用其他从库或主库", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按负载均衡方式选择一个可用的从库
+     */
+    private Replica select(long now) {
+        int size = replicas.size();
+        if (loadBalance == LoadBalance.LEAST_ACTIVE) {
+            Replica best = null;
+            int bestActive = Integer.MAX_VALUE;
+            for (Replica replica : replicas) {
+                if (!replica.isHealthy(now)) {
+                    continue;
+                }
+                int active;
+                try {
+                    active = replica.provider.getNumBusyConnections();
+                } catch (SQLException e) {
+                    active = Integer.MAX_VALUE - 1;
+                }
+                if (active < bestActive) {
+                    best = replica;
+                    bestActive = active;
+                }
+            }
+            return best;
+        }
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.isHealthy(now)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 从库的数量
+     */
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    /**
+     * @return 当前可用的从库数量
+     */
+    public int getHealthyReplicaCount() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Replica replica : replicas) {
+            if (replica.isHealthy(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param name 从库名称
+     * @return 从库获取连接失败的次数，没有这个从库时返回-1
+     */
+    public long getFailureCount(String name) {
+        for (Replica replica : replicas) {
+            if (replica.name.equals(name)) {
+                return replica.failures.get();
+            }
+        }
+        return -1;
+    }
+
+    public LoadBalance getLoadBalance() {
+        return loadBalance;
+    }
+
+    /**
+     * 关闭所有从库的连接池
+     */
+    void close() {
+        for (Replica replica : replicas) {
+            try {
+                replica.provider.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * 流式查询的行回调，每从结果集中读取一行就回调一次，行数据不会在内存中累积
+ */
+public interface RowCallback {
+
+    /**
+     * 处理一行数据
+     *
+     * @param row       当前行，key为列名，value为列对应的值
+     * @param rowNumber 当前行号，从1开始
+     * @throws SQLException SQL异常
+     */
+    void handleRow(Map<String, Object> row, int rowNumber) throws SQLException;
+}
@@ -0,0 +1,102 @@
+package cn.bluemobi.dylan.util;
+
+import java.util.*;
+
+/**
+ * 查询结果中的一行，列值按列顺序保存在数组中，列名由同一结果集的所有行共享的{@link ColumnIndex}提供，
+ * 对外是一个只读的Map，key为列名，value为列对应的值
+ */
+public final class RowMap extends AbstractMap<String, Object> {
+
+    private final ColumnIndex columnIndex;
+    private final Object[] values;
+
+    /**
+     * @param columnIndex 结果集共享的列索引
+     * @param values      按列顺序排列的列值，长度等于{@link ColumnIndex#getColumnCount()}
+     */
+    RowMap(ColumnIndex columnIndex, Object[] values) {
+        this.columnIndex = columnIndex;
+        this.values = values;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int position = columnIndex.indexOf(key);
+        return position < 0 ? null : values[position];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return columnIndex.indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return columnIndex.distinctSize();
+    }
+
+    /**
+     * 获取整数列的值
+     *
+     * @param columnName 列名
+     * @return 列的值，为null时返回0
+     */
+    public int getInt(String columnName) {
+        Number number = (Number) get(columnName);
+        return number == null ? 0 : number.intValue();
+    }
+
+    /**
+     * 获取长整数列的值
+     *
+     * @param columnName 列名
+     * @return 列的值，为null时返回0
+     */
+    public long getLong(String columnName) {
+        Number number = (Number) get(columnName);
+        return number == null ? 0L : number.longValue();
+    }
+
+    /**
+     * 获取浮点数列的值
+     *
+     * @param columnName 列名
+     * @return 列的值，为null时返回0
+     */
+    public double getDouble(String columnName) {
+        Number number = (Number) get(columnName);
+        return number == null ? 0D : number.doubleValue();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int n;
+
+                    @Override
+                    public boolean hasNext() {
+                        return n < columnIndex.distinctSize();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int position = columnIndex.distinctPosition(n++);
+                        return new SimpleImmutableEntry<>(columnIndex.getColumnName(position), values[position]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return columnIndex.distinctSize();
+            }
+        };
+    }
+}
@@ -0,0 +1,22 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 把结果集的当前行转换成指定类型的对象
+ *
+ * @param <T> 目标类型
+ */
+public interface RowMapper<T> {
+
+    /**
+     * 转换结果集的当前行
+     *
+     * @param resultSet 已经定位到某一行的结果集
+     * @param rowNumber 当前行号，从1开始
+     * @return 转换后的对象
+     * @throws SQLException SQL异常
+     */
+    T mapRow(ResultSet resultSet, int rowNumber) throws SQLException;
+}
@@ -0,0 +1,76 @@
+package cn.bluemobi.dylan.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分片表的注册：表名到分片键和分片策略。
+ * DBUtil以Map传入数据或条件的insert、insertAll、update、delete和query会根据分片键的值选择数据源，
+ * 条件中没有分片键的update、delete和query在所有分片上执行，结果合并；
+ * 通过{@link DataSourceContext}显式指定了数据源时不再路由；
+ * 事务中同样路由，路由到事务所在数据源以外的分片时抛出SQLException，不会写到事务的数据源上
+ */
+public final class ShardRouter {
+
+    private static final ConcurrentHashMap<String, Shard> TABLES = new ConcurrentHashMap<>();
+
+    private ShardRouter() {
+    }
+
+    /**
+     * 一张表的分片配置
+     */
+    static final class Shard {
+        final String keyColumn;
+        final ShardStrategy strategy;
+
+        Shard(String keyColumn, ShardStrategy strategy) {
+            this.keyColumn = keyColumn;
+            this.strategy = strategy;
+        }
+
+        /**
+         * 根据数据或条件中分片键的值选择数据源
+         *
+         * @param map 数据或条件
+         * @return 数据源的名称，没有分片键时返回null
+         */
+        String route(Map<String, Object> map) {
+            Object key = map == null ? null : map.get(keyColumn);
+            return key == null ? null : strategy.route(key);
+        }
+    }
+
+    /**
+     * 注册分片表
+     *
+     * @param tableName 表名
+     * @param keyColumn 分片键的列名，与Map中的key一致
+     * @param strategy  分片策略
+     */
+    public static void register(String tableName, String keyColumn, ShardStrategy strategy) {
+        TABLES.put(tableName.toLowerCase(), new Shard(keyColumn, strategy));
+    }
+
+    /**
+     * 取消分片表的注册
+     *
+     * @param tableName 表名
+     */
+    public static void unregister(String tableName) {
+        TABLES.remove(tableName.toLowerCase());
+    }
+
+    /**
+     * 获取需要路由的分片配置
+     *
+     * @param tableName 表名
+     * @return 分片配置，表没有分片或已经显式指定了数据源时返回null
+     */
+    static Shard shardOf(String tableName) {
+        if (TABLES.isEmpty() || DataSourceContext.current() != null) {
+            return null;
+        }
+        return TABLES.get(tableName.toLowerCase());
+    }
+}
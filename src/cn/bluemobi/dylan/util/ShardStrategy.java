@@ -0,0 +1,22 @@
+package cn.bluemobi.dylan.util;
+
+import java.util.List;
+
+/**
+ * 分片策略：根据分片键的值选择数据源
+ */
+public interface ShardStrategy {
+
+    /**
+     * 选择数据源
+     *
+     * @param key 分片键的值，不为null
+     * @return 数据源的名称
+     */
+    String route(Object key);
+
+    /**
+     * @return 所有分片的数据源名称，没有分片键的查询、修改和删除在所有分片上执行
+     */
+    List<String> getDataSources();
+}
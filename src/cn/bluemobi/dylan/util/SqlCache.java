@@ -0,0 +1,170 @@
+package cn.bluemobi.dylan.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DBUtil生成的sql语句缓存，key为操作类型+表名+有序的列名集合，
+ * 同样结构的Map重复调用insert/update/delete/query时直接复用已经拼好的sql，
+ * 同一个String对象也能让连接池的PreparedStatement缓存命中
+ */
+public final class SqlCache {
+
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int QUERY = 4;
+    static final int FIRST_PAGE = 5;
+    static final int NEXT_PAGE = 6;
+
+    /**
+     * 默认最多缓存的sql条数
+     */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private static final ConcurrentHashMap<Key, String> CACHE = new ConcurrentHashMap<>();
+    private static final AtomicLong HIT_COUNT = new AtomicLong();
+    private static final AtomicLong MISS_COUNT = new AtomicLong();
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    private SqlCache() {
+    }
+
+    /**
+     * 获取缓存的sql
+     *
+     * @param key 缓存的key
+     * @return 缓存的sql，没有时返回null
+     */
+    static String get(Key key) {
+        String sql = CACHE.get(key);
+        if (sql == null) {
+            MISS_COUNT.incrementAndGet();
+        } else {
+            HIT_COUNT.incrementAndGet();
+        }
+        return sql;
+    }
+
+    /**
+     * 缓存生成的sql，超过容量时淘汰任意一条
+     *
+     * @param key 缓存的key
+     * @param sql 生成的sql
+     */
+    static void put(Key key, String sql) {
+        if (maxSize <= 0) {
+            return;
+        }
+        while (CACHE.size() >= maxSize) {
+            Iterator<Key> iterator = CACHE.keySet().iterator();
+            if (!iterator.hasNext()) {
+                break;
+            }
+            iterator.next();
+            iterator.remove();
+        }
+        CACHE.put(key, sql);
+    }
+
+    /**
+     * 设置最多缓存的sql条数，为0时关闭缓存
+     *
+     * @param size 最多缓存的sql条数
+     */
+    public static void setMaxSize(int size) {
+        maxSize = size;
+        if (size <= 0) {
+            CACHE.clear();
+        }
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return 当前缓存的sql条数
+     */
+    public static int size() {
+        return CACHE.size();
+    }
+
+    /**
+     * @return 命中次数
+     */
+    public static long getHitCount() {
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * @return 未命中次数
+     */
+    public static long getMissCount() {
+        return MISS_COUNT.get();
+    }
+
+    /**
+     * @return 命中率，没有访问时为0
+     */
+    public static double getHitRate() {
+        long hit = HIT_COUNT.get();
+        long total = hit + MISS_COUNT.get();
+        return total == 0 ? 0D : (double) hit / total;
+    }
+
+    /**
+     * 清空缓存和统计
+     */
+    public static void clear() {
+        CACHE.clear();
+        HIT_COUNT.set(0);
+        MISS_COUNT.set(0);
+    }
+
+    /**
+     * 缓存的key：操作类型+表名+有序的列名+有序的条件列名
+     */
+    static final class Key {
+        private final int operation;
+        private final String tableName;
+        private final String[] columns;
+        private final String[] whereColumns;
+        private final int hash;
+
+        Key(int operation, String tableName, String[] columns, String[] whereColumns) {
+            this.operation = operation;
+            this.tableName = tableName;
+            this.columns = columns;
+            this.whereColumns = whereColumns;
+            int h = operation;
+            h = 31 * h + (tableName == null ? 0 : tableName.hashCode());
+            h = 31 * h + Arrays.hashCode(columns);
+            h = 31 * h + Arrays.hashCode(whereColumns);
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return operation == other.operation
+                    && hash == other.hash
+                    && (tableName == null ? other.tableName == null : tableName.equals(other.tableName))
+                    && Arrays.equals(columns, other.columns)
+                    && Arrays.equals(whereColumns, other.whereColumns);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package cn.bluemobi.dylan.util;
+
+/**
+ * sql跟踪信息的输出，默认输出到控制台，可以通过{@link SqlTracer#setListener(SqlTraceListener)}替换成日志框架
+ */
+public interface SqlTraceListener {
+
+    /**
+     * 输出一条跟踪信息，只有级别已开启并且被采样到时才会调用
+     *
+     * @param level   级别
+     * @param message 信息
+     * @param error   异常，没有时为null
+     */
+    void onTrace(SqlTracer.Level level, String message, Throwable error);
+}
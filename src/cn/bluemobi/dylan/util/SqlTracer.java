@@ -0,0 +1,245 @@
+package cn.bluemobi.dylan.util;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * DBUtil的sql跟踪，替代原来无条件的System.out输出。
+ * 每个方法都先判断级别和采样，关闭时直接返回，不拼接字符串也不创建任何对象；
+ * 级别和采样率通过属性文件中的jdbc.trace.level和jdbc.trace.sampleRate配置，慢查询在WARN级别输出，不采样
+ */
+public final class SqlTracer {
+
+    /**
+     * 跟踪级别，开启某个级别时比它低的级别也会输出
+     */
+    public enum Level {
+        /**
+         * 关闭
+         */
+        OFF,
+        /**
+         * 执行失败的sql和异常
+         */
+        ERROR,
+        /**
+         * 超过阈值的慢查询
+         */
+        WARN,
+        /**
+         * 每条sql的执行结果：影响或查询到的行数
+         */
+        INFO,
+        /**
+         * 绑定参数后的完整sql
+         */
+        DEBUG,
+        /**
+         * 查询结果的每一行
+         */
+        TRACE
+    }
+
+    /**
+     * 默认输出到控制台
+     */
+    public static final SqlTraceListener CONSOLE = new SqlTraceListener() {
+        @Override
+        public void onTrace(Level level, String message, Throwable error) {
+            System.out.println(message);
+            if (error != null) {
+                error.printStackTrace();
+            }
+        }
+    };
+
+    private static volatile int level = Level.OFF.ordinal();
+    /**
+     * 采样率，0到1之间，ERROR级别不采样
+     */
+    private static volatile double sampleRate = 1D;
+    private static volatile SqlTraceListener listener = CONSOLE;
+
+    private SqlTracer() {
+    }
+
+    /**
+     * 从属性文件读取跟踪配置
+     *
+     * @param properties 属性文件中的配置
+     */
+    static void configure(Properties properties) {
+        String levelName = properties.getProperty("jdbc.trace.level");
+        if (levelName != null) {
+            setLevel(Level.valueOf(levelName.trim().toUpperCase()));
+        }
+        String rate = properties.getProperty("jdbc.trace.sampleRate");
+        if (rate != null) {
+            setSampleRate(Double.parseDouble(rate.trim()));
+        }
+    }
+
+    public static void setLevel(Level level) {
+        SqlTracer.level = level.ordinal();
+    }
+
+    public static Level getLevel() {
+        return Level.values()[level];
+    }
+
+    /**
+     * 设置采样率，例如0.01表示只输出1%的sql
+     *
+     * @param sampleRate 0到1之间
+     */
+    public static void setSampleRate(double sampleRate) {
+        if (sampleRate < 0D || sampleRate > 1D) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1: " + sampleRate);
+        }
+        SqlTracer.sampleRate = sampleRate;
+    }
+
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
+    public static void setListener(SqlTraceListener listener) {
+        SqlTracer.listener = listener == null ? CONSOLE : listener;
+    }
+
+    /**
+     * 级别是否开启
+     *
+     * @param level 级别
+     * @return 是否开启
+     */
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.ordinal() <= SqlTracer.level;
+    }
+
+    /**
+     * 级别开启并且被采样到
+     */
+    private static boolean sampled(Level level) {
+        if (!isEnabled(level)) {
+            return false;
+        }
+        double rate = sampleRate;
+        return rate >= 1D || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * 输出要执行的sql，绑定参数替换到占位符中
+     *
+     * @param sql      sql语句
+     * @param bindArgs 绑定参数
+     */
+    public static void sql(String sql, Object[] bindArgs) {
+        if (sampled(Level.DEBUG)) {
+            listener.onTrace(Level.DEBUG, getExecSQL(sql, bindArgs), null);
+        }
+    }
+
+    /**
+     * 输出增删改的结果
+     *
+     * @param sql            执行的sql语句
+     * @param affectRowCount 影响的行数
+     */
+    public static void updated(String sql, int affectRowCount) {
+        if (sampled(Level.INFO)) {
+            String operate;
+            if (sql.toUpperCase().indexOf("DELETE FROM") != -1) {
+                operate = "删除";
+            } else if (sql.toUpperCase().indexOf("INSERT INTO") != -1) {
+                operate = "新增";
+            } else {
+                operate = "修改";
+            }
+            listener.onTrace(Level.INFO, "成功" + operate + "了" + affectRowCount + "行", null);
+        }
+    }
+
+    /**
+     * 输出批量插入的结果
+     *
+     * @param affectRowCount 插入的行数
+     */
+    public static void batchInserted(long affectRowCount) {
+        if (sampled(Level.INFO)) {
+            listener.onTrace(Level.INFO, "成功了插入了" + affectRowCount + "行", null);
+        }
+    }
+
+    /**
+     * 输出查询的结果行数
+     *
+     * @param rowCount 查询到的行数
+     */
+    public static void queried(int rowCount) {
+        if (sampled(Level.INFO)) {
+            listener.onTrace(Level.INFO, "成功查询到了" + rowCount + "行数据", null);
+        }
+    }
+
+    /**
+     * 输出查询结果的一行
+     *
+     * @param rowNumber 行号，从1开始
+     * @param row       行数据
+     */
+    public static void row(int rowNumber, Map<String, Object> row) {
+        if (sampled(Level.TRACE)) {
+            listener.onTrace(Level.TRACE, "第" + rowNumber + "行：" + row, null);
+        }
+    }
+
+    /**
+     * 输出执行失败的sql和异常
+     *
+     * @param sql   执行失败的sql
+     * @param error 异常
+     */
+    public static void error(String sql, Throwable error) {
+        if (isEnabled(Level.ERROR)) {
+            listener.onTrace(Level.ERROR, "执行失败：" + sql, error);
+        }
+    }
+
+    /**
+     * 输出超过阈值的慢查询
+     *
+     * @param sql    执行的sql
+     * @param millis 执行的时间，毫秒
+     */
+    public static void slowQuery(String sql, long millis) {
+        if (isEnabled(Level.WARN)) {
+            listener.onTrace(Level.WARN, "慢查询" + millis + "毫秒：" + sql, null);
+        }
+    }
+
+    /**
+     * After the execution of the complete SQL statement, not necessarily the actual implementation of the SQL statement
+     *
+     * @param sql      SQL statement
+     * @param bindArgs Binding parameters
+     * @return Replace? SQL statement executed after the
+     */
+    private static String getExecSQL(String sql, Object[] bindArgs) {
+        StringBuilder sb = new StringBuilder(sql);
+        if (bindArgs != null && bindArgs.length > 0) {
+            int index = 0;
+            for (int i = 0; i < bindArgs.length; i++) {
+                index = sb.indexOf("?", index);
+                if (index < 0) {
+                    break;
+                }
+                String value = String.valueOf(bindArgs[i]);
+                sb.replace(index, index + 1, value);
+                index += value.length();
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package cn.bluemobi.dylan.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 统计PreparedStatement缓存的命中率。
+ * c3p0只提供缓存的大小，没有命中次数，这里按物理连接为每个连接维护一份与连接池相同容量的LRU列表，
+ * 同一个物理连接上再次预编译列表中的sql即视为命中
+ */
+class StatementCacheMonitor {
+
+    /**
+     * 最多跟踪的物理连接数，连接被连接池销毁后对应的记录会逐渐被淘汰
+     */
+    private static final int MAX_TRACKED_CONNECTIONS = 64;
+
+    private final int maxStatementsPerConnection;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final Map<Object, Map<String, Boolean>> connections =
+            new LinkedHashMap<Object, Map<String, Boolean>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Map<String, Boolean>> eldest) {
+                    return size() > MAX_TRACKED_CONNECTIONS;
+                }
+            };
+
+    StatementCacheMonitor(int maxStatementsPerConnection) {
+        this.maxStatementsPerConnection = maxStatementsPerConnection;
+    }
+
+    /**
+     * 记录一次预编译
+     *
+     * @param connectionId 物理连接的标识
+     * @param sql          预编译的sql
+     */
+    void record(Object connectionId, String sql) {
+        Map<String, Boolean> statements;
+        synchronized (connections) {
+            statements = connections.get(connectionId);
+            if (statements == null) {
+                statements = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                        return size() > maxStatementsPerConnection;
+                    }
+                };
+                connections.put(connectionId, statements);
+            }
+        }
+        boolean hit;
+        synchronized (statements) {
+            hit = statements.put(sql, Boolean.TRUE) != null;
+        }
+        if (hit) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+}
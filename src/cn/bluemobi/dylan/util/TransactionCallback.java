@@ -0,0 +1,19 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+
+/**
+ * 事务中要执行的操作，回调中调用的所有DBUtil方法共用同一个连接，回调结束后统一提交
+ *
+ * @param <T> 返回值类型
+ */
+public interface TransactionCallback<T> {
+
+    /**
+     * 在事务中执行
+     *
+     * @return 返回值
+     * @throws SQLException 抛出异常时事务回滚
+     */
+    T doInTransaction() throws SQLException;
+}
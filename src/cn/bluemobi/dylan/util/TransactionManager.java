@@ -0,0 +1,220 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 线程绑定的事务。
+ * 事务中当前线程调用的所有DBUtil方法都使用同一个连接，不再各自获取连接、提交和关闭，
+ * 回调正常结束时只提交一次，抛出异常时回滚；
+ * 嵌套的事务使用保存点，内层失败只回滚到保存点；
+ * 只读事务不提交，结束时直接回滚
+ */
+public final class TransactionManager {
+
+    private static final ThreadLocal<Transaction> CURRENT = new ThreadLocal<>();
+
+    private TransactionManager() {
+    }
+
+    /**
+     * 在事务中执行回调
+     *
+     * @param readOnly 是否只读
+     * @param callback 要执行的操作
+     * @return 回调的返回值
+     * @throws SQLException SQL异常，事务已回滚
+     */
+    public static <T> T execute(boolean readOnly, TransactionCallback<T> callback) throws SQLException {
+        Transaction current = CURRENT.get();
+        if (current != null) {
+            return executeNested(current, readOnly, callback);
+        }
+        DBConnectionPool pool = DBConnectionPool.current();
+        Connection connection = pool.getConnection();
+        try {
+            /**设置不自动提交，以便于在出现异常的时候数据库回滚**/
+            connection.setAutoCommit(false);
+            if (readOnly) {
+                connection.setReadOnly(true);
+            }
+            Transaction transaction = new Transaction(pool, connection, readOnly);
+            CURRENT.set(transaction);
+            T result;
+            try {
+                result = callback.doInTransaction();
+            } catch (SQLException | RuntimeException | Error e) {
+                connection.rollback();
+                throw e;
+            }
+            if (readOnly) {
+                /**只读事务没有需要提交的修改**/
+                connection.rollback();
+            } else {
+                connection.commit();
+                /**提交后才使修改过的表的查询缓存失效，提交前其他线程仍然可能读到并缓存修改前的数据**/
+                for (String table : transaction.modifiedTables) {
+                    QueryCache.invalidate(table);
+                }
+            }
+            return result;
+        } finally {
+            CURRENT.remove();
+            connection.close();
+        }
+    }
+
+    /**
+     * 嵌套的事务，只读事务中不创建保存点
+     */
+    private static <T> T executeNested(Transaction transaction, boolean readOnly, TransactionCallback<T> callback)
+            throws SQLException {
+        if (transaction.readOnly) {
+            if (!readOnly) {
+                throw new SQLException("只读事务中不能嵌套读写事务");
+            }
+            return callback.doInTransaction();
+        }
+        Savepoint savepoint = transaction.connection.setSavepoint();
+        T result;
+        try {
+            result = callback.doInTransaction();
+        } catch (SQLException | RuntimeException | Error e) {
+            transaction.connection.rollback(savepoint);
+            throw e;
+        }
+        transaction.connection.releaseSavepoint(savepoint);
+        return result;
+    }
+
+    /**
+     * @return 当前线程是否在事务中
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * 获取连接：在事务中时返回事务的连接，否则从连接池获取
+     *
+     * @return 数据库连接，使用完毕后调用{@link #release(Connection)}
+     * @throws SQLException SQL异常
+     */
+    static Connection getConnection() throws SQLException {
+        Transaction transaction = CURRENT.get();
+        if (transaction != null) {
+            return transaction.connectionFor(DBConnectionPool.current());
+        }
+        return DBConnectionPool.current().getConnection();
+    }
+
+    /**
+     * 获取只读查询使用的连接，在事务中时返回事务的连接，保证能读到事务中的修改，否则优先使用从库
+     *
+     * @return 数据库连接
+     * @throws SQLException SQL异常
+     */
+    static Connection getReadConnection() throws SQLException {
+        Transaction transaction = CURRENT.get();
+        if (transaction != null) {
+            return transaction.connectionFor(DBConnectionPool.current());
+        }
+        return DBConnectionPool.current().getReadConnection();
+    }
+
+    /**
+     * 连接是否属于当前线程的事务，属于事务的连接由事务负责提交、回滚和关闭
+     *
+     * @param connection 数据库连接
+     * @return 是否属于当前事务
+     */
+    static boolean isTransactional(Connection connection) {
+        Transaction transaction = CURRENT.get();
+        return transaction != null && transaction.connection == connection;
+    }
+
+    /**
+     * 开始一次写操作，不在事务中时关闭自动提交
+     */
+    static void begin(Connection connection) throws SQLException {
+        if (!isTransactional(connection)) {
+            connection.setAutoCommit(false);
+        }
+    }
+
+    /**
+     * 提交一次写操作，在事务中时由事务统一提交
+     */
+    static void commit(Connection connection) throws SQLException {
+        if (!isTransactional(connection)) {
+            connection.commit();
+        }
+    }
+
+    /**
+     * 回滚一次写操作，在事务中时由事务统一回滚
+     */
+    static void rollback(Connection connection) throws SQLException {
+        if (!isTransactional(connection)) {
+            connection.rollback();
+        }
+    }
+
+    /**
+     * 归还连接，事务的连接在事务结束时归还
+     */
+    static void release(Connection connection) throws SQLException {
+        if (connection != null && !isTransactional(connection)) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 表被修改后使查询缓存失效，在事务中时记录下来，等事务提交后再失效，回滚时不失效
+     *
+     * @param table 表名，为null时使所有缓存失效
+     */
+    static void invalidate(String table) {
+        Transaction transaction = CURRENT.get();
+        if (transaction != null) {
+            transaction.modifiedTables.add(table);
+        } else {
+            QueryCache.invalidate(table);
+        }
+    }
+
+    /**
+     * 当前线程的事务
+     */
+    private static final class Transaction {
+        /**
+         * 事务所在的数据源
+         */
+        final DBConnectionPool pool;
+        final Connection connection;
+        final boolean readOnly;
+        /**
+         * 事务中修改过的表，提交后使这些表的查询缓存失效
+         */
+        final Set<String> modifiedTables = new LinkedHashSet<>();
+
+        Transaction(DBConnectionPool pool, Connection connection, boolean readOnly) {
+            this.pool = pool;
+            this.connection = connection;
+            this.readOnly = readOnly;
+        }
+
+        /**
+         * 获取事务的连接，事务中不能切换到其他数据源
+         */
+        Connection connectionFor(DBConnectionPool current) throws SQLException {
+            if (current != pool) {
+                throw new SQLException("事务在数据源" + pool.getName() + "上，不能在事务中使用数据源" + current.getName());
+            }
+            return connection;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package cn.bluemobi.dylan.util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单行插入的延迟写入缓冲：同一张表同样列的insert进入同一个无锁队列，
+ * 后台线程在积压到batchSize行或等待超过flushInterval时用insertAll批量写入，每批提交一次，
+ * 一批失败时逐行重新插入，只有出错的行失败；积压超过maxPendingRows时由调用线程写入所有积压的行，写入顺序不变。
+ * 通过{@link DBUtil#enableWriteBehind(WriteBehindOptions)}开启，开启后不在事务中的DBUtil.insert都会进入缓冲；
+ * 写入前查询不到缓冲中的数据
+ */
+public class WriteBehindBuffer {
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private final WriteBehindOptions options;
+    private final ConcurrentHashMap<List<Object>, Shape> shapes = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingRows = new AtomicInteger();
+    private final AtomicLong writtenRows = new AtomicLong();
+    private final AtomicLong failedRows = new AtomicLong();
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    WriteBehindBuffer(WriteBehindOptions options) {
+        this.options = options;
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "DBUtil-write-behind-" + THREAD_NUMBER.incrementAndGet());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 同一张表同样列的待写入行
+     */
+    private static final class Shape {
+        final String dataSource;
+        final String tableName;
+        final ConcurrentLinkedQueue<PendingRow> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+
+        Shape(String dataSource, String tableName) {
+            this.dataSource = dataSource;
+            this.tableName = tableName;
+        }
+    }
+
+    private static final class PendingRow {
+        final Map<String, Object> values;
+        final CompletableFuture<Integer> future;
+
+        PendingRow(Map<String, Object> values, CompletableFuture<Integer> future) {
+            this.values = values;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 按持久化方式插入一行
+     *
+     * @param tableName 表名
+     * @param valueMap  插入的数据
+     * @return 影响的行数
+     * @throws SQLException ACKNOWLEDGED时写入失败抛出
+     */
+    int insert(String tableName, Map<String, Object> valueMap) throws SQLException {
+        CompletableFuture<Integer> future = submit(tableName, valueMap);
+        if (options.getDurability() == WriteBehindOptions.Durability.FIRE_AND_FORGET) {
+            return 1;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待写入被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    /**
+     * 把一行放入缓冲，积压过多或已关闭时由调用线程同步写入积压的行和这一行
+     *
+     * @param tableName 表名
+     * @param valueMap  插入的数据，会复制一份，调用后可以继续修改
+     * @return 所在批次提交后完成
+     */
+    public CompletableFuture<Integer> submit(String tableName, Map<String, Object> valueMap) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        String[] columns = valueMap.keySet().toArray(new String[valueMap.size()]);
+        /**按数据源、表名和列分组，插入时使用调用线程指定的数据源**/
+        String dataSource = DataSourceContext.current();
+        List<Object> key = Arrays.<Object>asList(dataSource, new SqlCache.Key(SqlCache.INSERT, tableName, columns, null));
+        Shape shape = shapes.get(key);
+        if (shape == null) {
+            Shape created = new Shape(dataSource, tableName);
+            shape = shapes.putIfAbsent(key, created);
+            if (shape == null) {
+                shape = created;
+            }
+        }
+        shape.queue.offer(new PendingRow(new HashMap<>(valueMap), future));
+        int size = shape.size.incrementAndGet();
+        boolean overflow = pendingRows.incrementAndGet() > options.getMaxPendingRows();
+        /**放入队列后才读取closed：与close()同时调用时，close()的最后一次写入可能已经结束，由这里写入**/
+        if (overflow || closed) {
+            /**积压过多时调用线程等待之前的行写入完成，不越过队列直接写入，保持写入顺序**/
+            flush();
+        } else if (size >= options.getBatchSize()) {
+            LockSupport.unpark(flusher);
+        }
+        return future;
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            LockSupport.parkNanos(this, options.getFlushInterval() * 1000000L);
+            flushAll();
+        }
+    }
+
+    /**
+     * 写入所有积压的行，由后台线程定时调用，也可以手动调用
+     */
+    public synchronized void flush() {
+        flushAll();
+    }
+
+    private synchronized void flushAll() {
+        for (Shape shape : shapes.values()) {
+            while (shape.size.get() > 0) {
+                flush(shape);
+            }
+        }
+    }
+
+    /**
+     * 从队列中取出最多一批行写入
+     */
+    private void flush(Shape shape) {
+        List<PendingRow> rows = new ArrayList<>(Math.min(shape.size.get(), options.getBatchSize()));
+        List<Map<String, Object>> datas = new ArrayList<>(rows.size());
+        PendingRow row;
+        while (rows.size() < options.getBatchSize() && (row = shape.queue.poll()) != null) {
+            rows.add(row);
+            datas.add(row.values);
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        shape.size.addAndGet(-rows.size());
+        pendingRows.addAndGet(-rows.size());
+        final String tableName = shape.tableName;
+        try {
+            DataSourceContext.execute(shape.dataSource, () -> DBUtil.insertAll(tableName, datas.iterator(),
+                    new BatchOptions().batchSize(options.getBatchSize())));
+            writtenRows.addAndGet(rows.size());
+            for (PendingRow pendingRow : rows) {
+                pendingRow.future.complete(1);
+            }
+        } catch (Throwable e) {
+            /**insertAll已经通过SqlTracer输出了失败的sql，整批已回滚**/
+            if (rows.size() == 1) {
+                failedRows.incrementAndGet();
+                rows.get(0).future.completeExceptionally(e);
+                return;
+            }
+            /**逐行重新插入，只有出错的行失败**/
+            for (final PendingRow pendingRow : rows) {
+                insertRow(shape.dataSource, tableName, pendingRow);
+            }
+        }
+    }
+
+    /**
+     * 单独插入一行
+     */
+    private void insertRow(String dataSource, final String tableName, final PendingRow row) {
+        try {
+            int count = DataSourceContext.execute(dataSource, () -> DBUtil.insertNow(tableName, row.values));
+            writtenRows.incrementAndGet();
+            row.future.complete(count);
+        } catch (Throwable e) {
+            failedRows.incrementAndGet();
+            row.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 停止后台线程并写入所有积压的行，之后的insert由调用线程同步写入
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(flusher);
+        flush();
+    }
+
+    /**
+     * @return 缓冲中等待写入的行数
+     */
+    public int getPendingRowCount() {
+        return pendingRows.get();
+    }
+
+    /**
+     * @return 已经写入的行数
+     */
+    public long getWrittenRowCount() {
+        return writtenRows.get();
+    }
+
+    /**
+     * @return 写入失败的行数
+     */
+    public long getFailedRowCount() {
+        return failedRows.get();
+    }
+
+    public WriteBehindOptions getOptions() {
+        return options;
+    }
+}
@@ -0,0 +1,112 @@
+package cn.bluemobi.dylan.util;
+
+/**
+ * 延迟写入的参数：每批的行数、最长等待时间、最多积压的行数和持久化方式
+ */
+public class WriteBehindOptions {
+
+    /**
+     * 持久化方式
+     */
+    public enum Durability {
+        /**
+         * insert立即返回1，写入失败时只能通过SqlTracer和失败行数得知
+         */
+        FIRE_AND_FORGET,
+        /**
+         * insert等待所在的批次提交后返回，失败时抛出SQLException，
+         * 适合多个线程同时调用，单线程循环调用时每行都要等待一个flushInterval
+         */
+        ACKNOWLEDGED
+    }
+
+    /**
+     * 默认每批的行数
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    /**
+     * 默认最长等待时间，毫秒
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 100;
+    /**
+     * 默认最多积压的行数
+     */
+    public static final int DEFAULT_MAX_PENDING_ROWS = 100000;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private int maxPendingRows = DEFAULT_MAX_PENDING_ROWS;
+    private Durability durability = Durability.FIRE_AND_FORGET;
+
+    /**
+     * 同一张表同样的列积压到多少行时立即写入
+     *
+     * @param batchSize 行数，必须大于0
+     * @return this
+     */
+    public WriteBehindOptions batchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * 行数不够一批时最长等待多久写入
+     *
+     * @param flushInterval 毫秒，必须大于0
+     * @return this
+     */
+    public WriteBehindOptions flushInterval(long flushInterval) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("flushInterval must be positive: " + flushInterval);
+        }
+        this.flushInterval = flushInterval;
+        return this;
+    }
+
+    /**
+     * 最多积压的行数，超过时insert由调用线程同步写入所有积压的行，等写入完成后才返回
+     *
+     * @param maxPendingRows 行数，必须大于0
+     * @return this
+     */
+    public WriteBehindOptions maxPendingRows(int maxPendingRows) {
+        if (maxPendingRows <= 0) {
+            throw new IllegalArgumentException("maxPendingRows must be positive: " + maxPendingRows);
+        }
+        this.maxPendingRows = maxPendingRows;
+        return this;
+    }
+
+    /**
+     * 持久化方式
+     *
+     * @param durability 持久化方式
+     * @return this
+     */
+    public WriteBehindOptions durability(Durability durability) {
+        if (durability == null) {
+            throw new IllegalArgumentException("durability must not be null");
+        }
+        this.durability = durability;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public int getMaxPendingRows() {
+        return maxPendingRows;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+}